@@ -1,10 +1,11 @@
 import service.*;
 import java.io.IOException;
+import java.nio.file.Path;
 
 public class Main {
 
     public static void main(String[] args) throws IOException {
-        new KVServer().start();
+        new KVServer(Path.of("kvdata")).start(); //Данные KVServer сохраняются между запусками
         new HttpTaskServer();
     }
 }
@@ -4,7 +4,8 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 
 public class Epic extends Task {
-    protected ArrayList<Integer> subtaskIds = new ArrayList<>();
+    //id подзадач в порядке добавления (без повторов), в JSON - массив чисел. Добавление и удаление - O(1)
+    protected IdSet subtaskIds = new IdSet();
 
     protected LocalDateTime endTime;
 
@@ -14,32 +15,45 @@ public class Epic extends Task {
 
     public Epic(String name, String discription, TaskStatus status, int id) {
         super(name, discription, status, id);
-        this.subtaskIds = new ArrayList<>();
     }
 
     public void clearSubtaskIds() {
-        this.subtaskIds.clear();
+        subtaskIds().clear();
     }
 
-    public void addSubtaskIds(Integer subtaskId) {
-        if (!this.subtaskIds.contains(subtaskId)) {
-            this.subtaskIds.add(subtaskId);
-        }
+    public void addSubtaskIds(int subtaskId) {
+        subtaskIds().addId(subtaskId); //повторы исключаются
     }
 
-    public void removeSubtaskIds(Integer subtaskId) {
-        if (this.subtaskIds.contains(subtaskId)) {
-            this.subtaskIds.remove(this.subtaskIds.indexOf(subtaskId));
-        }
+    public void removeSubtaskIds(int subtaskId) {
+        subtaskIds().removeId(subtaskId);
     }
 
     public void setSubtaskIds(ArrayList<Integer> ids) {
+        IdSet subtaskIds = subtaskIds();
         subtaskIds.clear();
         subtaskIds.addAll(ids);
     }
 
+    // Замена перечня подзадач
+    public void setSubtaskIds(int[] ids) {
+        IdSet subtaskIds = subtaskIds();
+        subtaskIds.clear();
+        for (int id : ids) {
+            subtaskIds.addId(id);
+        }
+    }
+
     public ArrayList<Integer> getSubtaskIds() {
-        return new ArrayList<>(this.subtaskIds);
+        return new ArrayList<>(subtaskIds());
+    }
+
+    // Перечень подзадач. Эпик, прочитанный из JSON без перечня подзадач, получает пустой перечень
+    private IdSet subtaskIds() {
+        if (subtaskIds == null) {
+            subtaskIds = new IdSet();
+        }
+        return subtaskIds;
     }
 
     @Override
@@ -56,17 +70,13 @@ public class Epic extends Task {
         return this.getClass().toString() + "{" + // имя класса
                 super.fieldsToString() +
                 (endTime != null ? (", endTime='" + endTime + '\'') : "") +
-                ", subtaskIds=" + this.subtaskIds.toString() + // поле3=значение3
+                ", subtaskIds=" + subtaskIds() + // поле3=значение3
                 '}';
     }
 
     @Override
     public int hashCode() {
-        int hash = super.hashCode();
-        for (Integer subtaskId : subtaskIds) {
-            hash += subtaskId.hashCode();
-        }
-        return hash * 31;
+        return (super.hashCode() + subtaskIds().hashCode()) * 31;
     }
 
     @Override
@@ -80,7 +90,8 @@ public class Epic extends Task {
             return false;
         }
 
-        return subtaskIds.equals(epic.subtaskIds);
+        //Перечни сравниваются без учета порядка
+        return subtaskIds().equals(epic.subtaskIds());
     }
 
 }
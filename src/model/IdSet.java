@@ -0,0 +1,246 @@
+package model;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+//==========================================================================================================
+// Набор идентификаторов в порядке добавления (без повторов) без упаковки в Integer. Идентификаторы хранятся
+// в растущем массиве int; удаленный элемент отмечается в массиве, массив уплотняется, когда удаленных
+// становится больше, чем оставшихся. Добавление и удаление - O(1) в среднем: для небольших наборов элемент
+// ищется перебором, для больших - по хеш-таблице позиций в массиве (открытая адресация, ключ берется из
+// массива по позиции, поэтому отдельный массив ключей не нужен).
+// Набор - коллекция Integer, поэтому Gson записывает и читает его как JSON-массив чисел.
+//-----------------------------------------------------------------------------------------------------------
+
+public class IdSet extends AbstractSet<Integer> {
+    private static final int[] NO_IDS = new int[0];
+    private static final int REMOVED = Integer.MIN_VALUE; //Отметка удаленного элемента
+    private static final int FREE = -1; //Свободная ячейка хеш-таблицы
+    private static final int INDEX_THRESHOLD = 8; //Размер набора, начиная с которого поиск идет по индексу
+
+    private int[] ids = NO_IDS; //Идентификаторы в порядке добавления, удаленные отмечены REMOVED
+    private int length = 0; //Занятая часть массива (вместе с удаленными)
+    private int size = 0;
+    private int[] index; //Позиции идентификаторов в ids (хеш-таблица), null - поиск перебором
+
+    public IdSet() {
+    }
+
+    // Добавление идентификатора. Возвращает false, если он уже есть в наборе
+    public boolean addId(int id) {
+        if (id == REMOVED) {
+            throw new IllegalArgumentException("Недопустимый идентификатор: " + id);
+        }
+        if (positionOf(id) >= 0) {
+            return false;
+        }
+        if (length == ids.length) {
+            if (length - size > size) {
+                compact();
+            } else {
+                ids = Arrays.copyOf(ids, Math.max(4, ids.length * 2));
+            }
+        }
+        ids[length++] = id;
+        size++;
+        if ((index == null) ? (size > INDEX_THRESHOLD) : (size > index.length / 4 * 3)) {
+            rebuildIndex();
+        } else if (index != null) {
+            insertIndex(length - 1);
+        }
+        return true;
+    }
+
+    // Удаление идентификатора. Возвращает false, если его не было в наборе
+    public boolean removeId(int id) {
+        int position = positionOf(id);
+        if (position < 0) {
+            return false;
+        }
+        if (index != null) {
+            deleteIndex(slotOf(id));
+        }
+        ids[position] = REMOVED;
+        size--;
+        if (position == length - 1) {
+            length--;
+        }
+        if (size == 0) {
+            clear();
+        } else if (length - size > size) {
+            compact();
+        }
+        return true;
+    }
+
+    public boolean containsId(int id) {
+        return positionOf(id) >= 0;
+    }
+
+    // Идентификаторы в порядке добавления
+    public int[] toIntArray() {
+        int[] result = new int[size];
+        int i = 0;
+        for (int position = 0; position < length; position++) {
+            if (ids[position] != REMOVED) {
+                result[i++] = ids[position];
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean add(Integer id) {
+        return addId(id);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return (o instanceof Integer) && removeId((Integer) o);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return (o instanceof Integer) && containsId((Integer) o);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        ids = NO_IDS;
+        length = 0;
+        size = 0;
+        index = null;
+    }
+
+    @Override
+    public Iterator<Integer> iterator() {
+        return new Iterator<>() {
+            private int position = skipRemoved(0);
+
+            @Override
+            public boolean hasNext() {
+                return position < length;
+            }
+
+            @Override
+            public Integer next() {
+                if (position >= length) {
+                    throw new NoSuchElementException();
+                }
+                int id = ids[position];
+                position = skipRemoved(position + 1);
+                return id;
+            }
+        };
+    }
+
+    private int skipRemoved(int position) {
+        while ((position < length) && (ids[position] == REMOVED)) {
+            position++;
+        }
+        return position;
+    }
+
+    // Позиция идентификатора в массиве или -1
+    private int positionOf(int id) {
+        if (id == REMOVED) {
+            return -1;
+        }
+        if (index == null) {
+            for (int position = 0; position < length; position++) {
+                if (ids[position] == id) {
+                    return position;
+                }
+            }
+            return -1;
+        }
+        int slot = slotOf(id);
+        return (slot < 0) ? -1 : index[slot];
+    }
+
+    // Ячейка хеш-таблицы с позицией идентификатора или -1
+    private int slotOf(int id) {
+        int mask = index.length - 1;
+        int slot = hash(id) & mask;
+        while (index[slot] != FREE) {
+            if (ids[index[slot]] == id) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insertIndex(int position) {
+        int mask = index.length - 1;
+        int slot = hash(ids[position]) & mask;
+        while (index[slot] != FREE) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = position;
+    }
+
+    // Освобождение ячейки со сдвигом назад элементов цепочки (без "надгробий")
+    private void deleteIndex(int slot) {
+        int mask = index.length - 1;
+        int free = slot;
+        int next = (slot + 1) & mask;
+        while (index[next] != FREE) {
+            int home = hash(ids[index[next]]) & mask;
+            //Элемент можно перенести, если его исходная ячейка не лежит между свободной и текущей
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                index[free] = index[next];
+                free = next;
+            }
+            next = (next + 1) & mask;
+        }
+        index[free] = FREE;
+    }
+
+    // Уплотнение массива: удаленные элементы исключаются, позиции в индексе пересчитываются
+    private void compact() {
+        int live = 0;
+        for (int position = 0; position < length; position++) {
+            if (ids[position] != REMOVED) {
+                ids[live++] = ids[position];
+            }
+        }
+        Arrays.fill(ids, live, length, 0);
+        length = live;
+        if (ids.length > Math.max(4, live * 2)) {
+            ids = Arrays.copyOf(ids, Math.max(4, live * 2));
+        }
+        if (index != null) {
+            rebuildIndex();
+        }
+    }
+
+    private void rebuildIndex() {
+        if (size <= INDEX_THRESHOLD) {
+            index = null;
+            return;
+        }
+        int capacity = 16;
+        while (capacity / 4 * 3 < size * 2) {
+            capacity *= 2;
+        }
+        index = new int[capacity];
+        Arrays.fill(index, FREE);
+        for (int position = 0; position < length; position++) {
+            if (ids[position] != REMOVED) {
+                insertIndex(position);
+            }
+        }
+    }
+
+    private static int hash(int id) {
+        return id * 0x9E3779B9; //Перемешивание битов (мультипликативное хеширование)
+    }
+}
@@ -1,7 +1,7 @@
 package model;
 
 public class Subtask extends Task {
-    protected Integer epicId;
+    protected int epicId;
 
     public Subtask(Epic epic, String name, String discription) {
         super(name, discription);
@@ -13,11 +13,17 @@ public class Subtask extends Task {
         this.setEpicId(epic.getId());
     }
 
-    public Integer getEpicId() {
+    //Подзадача по id эпика (эпик может быть еще не создан, например, при параллельной загрузке)
+    public Subtask(int epicId, String name, String discription, TaskStatus status, int id) {
+        super(name, discription, status, id);
+        this.setEpicId(epicId);
+    }
+
+    public int getEpicId() {
         return epicId;
     }
 
-    public void setEpicId(Integer epicId) {
+    public void setEpicId(int epicId) {
         if (epicId == -1) {
             throw new Error("Экземпляр класса Epic перед добавлением подзадачи предварительно не добавлен в менеджер");
         }
@@ -35,7 +41,7 @@ public class Subtask extends Task {
     @Override
     public int hashCode() {
         int hash = super.hashCode();
-        hash += epicId.hashCode();
+        hash += Integer.hashCode(epicId);
         return hash * 31;
     }
 
@@ -52,6 +58,6 @@ public class Subtask extends Task {
         }
 
         //Если ранее все было идентично, итоговый результат определится равенством перечней подзадач
-        return this.epicId.equals(subtask.epicId);
+        return this.epicId == subtask.epicId;
     }
 }
@@ -5,7 +5,7 @@ import java.time.LocalDateTime;
 import java.util.Objects;
 
 public class Task {
-    protected Integer id;
+    protected int id;
     protected String name;
     protected String description;
     protected TaskStatus status;
@@ -29,7 +29,7 @@ public class Task {
         this.setStatus(status);
     }
 
-    public Integer getId() {
+    public int getId() {
         return id;
     }
 
@@ -98,7 +98,7 @@ public class Task {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Task task = (Task) o;
-        return Objects.equals(id, task.id)
+        return id == task.id
                 && Objects.equals(name, task.name)
                 && Objects.equals(description, task.description)
                 && status == task.status && Objects.equals(duration, task.duration)
@@ -0,0 +1,295 @@
+package service;
+
+import model.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+//==========================================================================================================
+// Двоичный снимок данных менеджера - компактная альтернатива CSV для быстрого запуска. Значения пишутся
+// без текстового представления: время - секунды от начала эпохи, продолжительность - секунды, тип и
+// статус - байт, строки - длина и байты UTF-8.
+// Формат файла:
+//   int MAGIC
+//   записи задач/эпиков/подзадач (в порядке задачи, эпики, подзадачи):
+//     byte тип (1 - задача, 2 - эпик, 3 - подзадача), int id, byte статус, строка имя, строка описание,
+//     [int id эпика - для подзадачи], byte флаги времени,
+//     [long секунды начала, [int наносекунды начала]], [long секунды продолжительности, [int наносекунды]]
+//   byte 0 - конец записей
+//   int количество записей истории, int id задач истории
+// Строка: int длина в байтах (-1 для null), байты UTF-8.
+// Преобразование файлов: java service.BinarySnapshot <исходный файл> <файл результата> - формат исходного
+// файла определяется по содержимому, результат записывается в другом формате.
+//-----------------------------------------------------------------------------------------------------------
+
+public final class BinarySnapshot {
+    static final int MAGIC = 0x4B424E31; //"KBN1"
+
+    private static final byte END_OF_RECORDS = 0;
+    private static final byte TYPE_TASK = 1;
+    private static final byte TYPE_EPIC = 2;
+    private static final byte TYPE_SUBTASK = 3;
+
+    //Флаги времени записи
+    private static final int HAS_START_TIME = 1;
+    private static final int HAS_START_NANOS = 2;
+    private static final int HAS_DURATION = 4;
+    private static final int HAS_DURATION_NANOS = 8;
+
+    private static final TaskStatus[] STATUSES = TaskStatus.values();
+
+    private BinarySnapshot() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.println("Использование: java service.BinarySnapshot <исходный файл> <файл результата>");
+            return;
+        }
+        convert(new File(args[0]), new File(args[1]));
+    }
+
+    // Преобразование снимка: двоичный -> CSV или CSV -> двоичный (по содержимому исходного файла)
+    public static void convert(File source, File target) {
+        if (isBinary(source)) {
+            FileBackedTasksManager manager = new FileBackedTasksManager(target);
+            read(source, manager);
+            manager.save();
+        } else {
+            write(FileBackedTasksManager.loadFromFile(source), target);
+        }
+    }
+
+    // Проверка, что файл является двоичным снимком
+    public static boolean isBinary(File file) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (EOFException e) {
+            return false;
+        } catch (IOException e) {
+            throw new ManagerSaveException(e.getMessage());
+        }
+    }
+
+    // Запись снимка. Запись выполняется во временный файл, который затем заменяет файл снимка
+    static void write(InMemoryTaskManager manager, File file) {
+        File tempFile = new File(file.getPath() + FileBackedTasksManager.TEMP_FILE_SUFFIX);
+        try (FileOutputStream fileOut = new FileOutputStream(tempFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut,
+                     FileBackedTasksManager.IO_BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            for (Task task : manager.getTasksAnonimusly()) {
+                writeTask(out, TYPE_TASK, task);
+            }
+            for (Epic epic : manager.getEpicsAnonimusly()) {
+                writeTask(out, TYPE_EPIC, epic);
+            }
+            for (Subtask subtask : manager.getSubtasksAnonimusly()) {
+                writeTask(out, TYPE_SUBTASK, subtask);
+            }
+            out.writeByte(END_OF_RECORDS);
+
+            List<Task> history = manager.getHistory();
+            out.writeInt(history.size());
+            for (Task task : history) {
+                out.writeInt(task.getId());
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            throw new ManagerSaveException(e.getMessage());
+        }
+        FileBackedTasksManager.replaceFile(tempFile, file);
+    }
+
+    private static void writeTask(DataOutputStream out, byte type, Task task) throws IOException {
+        out.writeByte(type);
+        out.writeInt(task.getId());
+        out.writeByte(task.getStatus().ordinal());
+        writeString(out, task.getName());
+        writeString(out, task.getDiscription());
+        if (type == TYPE_SUBTASK) {
+            out.writeInt(((Subtask) task).getEpicId());
+        }
+
+        //Временные параметры эпика расчитываются от подзадач и не сохраняются
+        LocalDateTime startTime = (type == TYPE_EPIC) ? null : task.getStartTime();
+        Duration duration = (type == TYPE_EPIC) ? null : task.getDuration();
+        int flags = 0;
+        if (startTime != null) {
+            flags |= HAS_START_TIME | ((startTime.getNano() != 0) ? HAS_START_NANOS : 0);
+        }
+        if (duration != null) {
+            flags |= HAS_DURATION | ((duration.getNano() != 0) ? HAS_DURATION_NANOS : 0);
+        }
+        out.writeByte(flags);
+        if (startTime != null) {
+            out.writeLong(startTime.toEpochSecond(ZoneOffset.UTC));
+            if ((flags & HAS_START_NANOS) != 0) {
+                out.writeInt(startTime.getNano());
+            }
+        }
+        if (duration != null) {
+            out.writeLong(duration.getSeconds());
+            if ((flags & HAS_DURATION_NANOS) != 0) {
+                out.writeInt(duration.getNano());
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Загрузка снимка в менеджер
+    static void read(File file, InMemoryTaskManager manager) {
+        manager.beginBulkLoad();
+        try (SnapshotReader in = new SnapshotReader(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                throw new ManagerSaveException("Файл " + file + " не является двоичным снимком");
+            }
+            byte type = in.readByte();
+            while (type != END_OF_RECORDS) {
+                readTask(in, type, manager);
+                type = in.readByte();
+            }
+
+            manager.historyManager.clear();
+            int historySize = in.readInt();
+            for (int i = 0; i < historySize; i++) {
+                manager.historyManager.add(manager.findAnonimusly(in.readInt()));
+            }
+        } catch (EOFException e) {
+            throw new ManagerSaveException("Двоичный снимок " + file + " записан не полностью");
+        } catch (IOException e) {
+            throw new ManagerSaveException(e.getMessage());
+        } finally {
+            manager.endBulkLoad();
+        }
+    }
+
+    private static void readTask(SnapshotReader in, byte type, InMemoryTaskManager manager) throws IOException {
+        int id = in.readInt();
+        TaskStatus status = STATUSES[in.readByte()];
+        String name = in.readString();
+        String description = in.readString();
+        int epicId = (type == TYPE_SUBTASK) ? in.readInt() : 0;
+        int flags = in.readByte();
+        LocalDateTime startTime = null;
+        if ((flags & HAS_START_TIME) != 0) {
+            long seconds = in.readLong();
+            int nanos = ((flags & HAS_START_NANOS) != 0) ? in.readInt() : 0;
+            startTime = LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+        }
+        Duration duration = null;
+        if ((flags & HAS_DURATION) != 0) {
+            long seconds = in.readLong();
+            int nanos = ((flags & HAS_DURATION_NANOS) != 0) ? in.readInt() : 0;
+            duration = Duration.ofSeconds(seconds, nanos);
+        }
+
+        switch (type) {
+            case TYPE_TASK:
+                Task task = new Task(name, description, status, id);
+                task.setStartTime(startTime);
+                task.setDuration(duration);
+                manager.importTask(task);
+                break;
+            case TYPE_EPIC:
+                manager.importEpic(new Epic(name, description, status, id));
+                break;
+            case TYPE_SUBTASK:
+                Epic epic = manager.getEpicAnonimusly(epicId);
+                if (epic == null) {
+                    throw new ManagerSaveException("Подзадача " + id + " ссылается на отсутствующий эпик " + epicId);
+                }
+                Subtask subtask = new Subtask(epic, name, description, status, id);
+                subtask.setStartTime(startTime);
+                subtask.setDuration(duration);
+                manager.importSubtask(subtask);
+                break;
+            default:
+                throw new ManagerSaveException("Неизвестный тип записи двоичного снимка: " + type);
+        }
+    }
+
+    // Чтение значений из собственного буфера (без синхронизированных побайтовых вызовов потоков)
+    private static class SnapshotReader implements Closeable {
+        private final InputStream in;
+        private byte[] buffer = new byte[FileBackedTasksManager.IO_BUFFER_SIZE];
+        private int position = 0;
+        private int limit = 0;
+
+        SnapshotReader(InputStream in) {
+            this.in = in;
+        }
+
+        // Обеспечение наличия в буфере заданного количества байт
+        private void require(int count) throws IOException {
+            if (limit - position >= count) {
+                return;
+            }
+            if (count > buffer.length) {
+                byte[] larger = new byte[Math.max(count, buffer.length * 2)];
+                System.arraycopy(buffer, position, larger, 0, limit - position);
+                buffer = larger;
+            } else {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+            }
+            limit -= position;
+            position = 0;
+            while (limit < count) {
+                int read = in.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                limit += read;
+            }
+        }
+
+        byte readByte() throws IOException {
+            require(1);
+            return buffer[position++];
+        }
+
+        int readInt() throws IOException {
+            require(4);
+            int value = ((buffer[position] & 0xFF) << 24) | ((buffer[position + 1] & 0xFF) << 16)
+                    | ((buffer[position + 2] & 0xFF) << 8) | (buffer[position + 3] & 0xFF);
+            position += 4;
+            return value;
+        }
+
+        long readLong() throws IOException {
+            long high = readInt();
+            long low = readInt() & 0xFFFFFFFFL;
+            return (high << 32) | low;
+        }
+
+        String readString() throws IOException {
+            int length = readInt();
+            if (length < 0) {
+                return null;
+            }
+            require(length);
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
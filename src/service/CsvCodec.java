@@ -0,0 +1,102 @@
+package service;
+
+import java.util.List;
+
+//==========================================================================================================
+// Чтение и запись строк CSV за один проход по символам, без регулярных выражений и промежуточных массивов.
+// Поле в кавычках может содержать разделитель и кавычки (записываются парой ""), поле без кавычек читается
+// до разделителя. Строка разбирается конечным автоматом:
+//   FIELD_START - начало поля; QUOTED - внутри кавычек; QUOTE_IN_QUOTED - кавычка внутри кавычек (пара ""
+//   или конец поля); UNQUOTED - поле без кавычек
+//-----------------------------------------------------------------------------------------------------------
+
+final class CsvCodec {
+    static final char DELIMITER = ',';
+    static final char QUOTE = '"';
+
+    private static final int FIELD_START = 0;
+    private static final int QUOTED = 1;
+    private static final int QUOTE_IN_QUOTED = 2;
+    private static final int UNQUOTED = 3;
+
+    private final StringBuilder field = new StringBuilder(); //Буфер значения поля (переиспользуется)
+
+    // Разбор строки CSV. Значения полей добавляются в values (список предварительно очищается)
+    void parseLine(String line, List<String> values) {
+        values.clear();
+        field.setLength(0);
+        int state = FIELD_START;
+        int length = line.length();
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            switch (state) {
+                case FIELD_START:
+                    if (c == QUOTE) {
+                        state = QUOTED;
+                    } else if (c == DELIMITER) {
+                        values.add("");
+                    } else {
+                        field.append(c);
+                        state = UNQUOTED;
+                    }
+                    break;
+                case QUOTED:
+                    if (c == QUOTE) {
+                        state = QUOTE_IN_QUOTED;
+                    } else {
+                        field.append(c);
+                    }
+                    break;
+                case QUOTE_IN_QUOTED:
+                    if (c == QUOTE) {
+                        //Пара кавычек внутри значения
+                        field.append(QUOTE);
+                        state = QUOTED;
+                    } else if (c == DELIMITER) {
+                        endField(values);
+                        state = FIELD_START;
+                    } else {
+                        throw new IllegalArgumentException("Некорректная строка CSV (символ после кавычки в позиции "
+                                + i + "): " + line);
+                    }
+                    break;
+                case UNQUOTED:
+                    if (c == DELIMITER) {
+                        endField(values);
+                        state = FIELD_START;
+                    } else {
+                        field.append(c);
+                    }
+                    break;
+            }
+        }
+        if (state == QUOTED) {
+            throw new IllegalArgumentException("Некорректная строка CSV (нет закрывающей кавычки): " + line);
+        }
+        endField(values);
+    }
+
+    private void endField(List<String> values) {
+        values.add(field.toString());
+        field.setLength(0);
+    }
+
+    // Запись значения поля в кавычках, кавычки внутри значения удваиваются
+    static void appendField(StringBuilder out, String value) {
+        out.append(QUOTE);
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == QUOTE) {
+                out.append(QUOTE);
+            }
+            out.append(c);
+        }
+        out.append(QUOTE);
+    }
+
+    // Запись целого значения поля в кавычках
+    static void appendField(StringBuilder out, int value) {
+        out.append(QUOTE).append(value).append(QUOTE);
+    }
+}
@@ -0,0 +1,163 @@
+package service;
+
+import model.Epic;
+import model.Subtask;
+import model.TaskStatus;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+//==========================================================================================================
+// Агрегированные сведения о подзадачах эпика: перечень подзадач (в порядке добавления), счетчики статусов,
+// упорядоченные наборы времени начала и окончания, суммарная продолжительность. Обновляются инкрементально
+// при добавлении, изменении и удалении подзадачи, что избавляет от пересчета эпика и поиска его подзадач
+// обходом всех подзадач менеджера.
+//-----------------------------------------------------------------------------------------------------------
+
+class EpicAggregate {
+    private final int[] statusCounters = new int[TaskStatus.values().length]; //Количество подзадач по статусам
+    private final TreeMap<LocalDateTime, Integer> startTimes = new TreeMap<>(); //Время начала -> кол-во подзадач
+    private final TreeMap<LocalDateTime, Integer> endTimes = new TreeMap<>(); //Время окончания -> кол-во подзадач
+    private Duration totalDuration = Duration.ZERO; //Сумма продолжительностей подзадач
+    private int durationsCount = 0; //Количество подзадач с заданной продолжительностью
+    //Индекс подзадач эпика с вкладом каждой подзадачи (в порядке добавления). Вклад хранится отдельно от
+    //самой подзадачи, т.к. объект подзадачи может быть изменен "на месте" до вызова обновления в менеджере
+    private final Map<Integer, Contribution> contributions = new LinkedHashMap<>();
+
+    // Добавление или обновление сведений о подзадаче. Возвращает true, если подзадача добавлена впервые
+    boolean put(Subtask subtask) {
+        Contribution contribution = new Contribution(subtask);
+        //Для уже учтенной подзадачи заменяем вклад без изменения порядка следования
+        Contribution previous = contributions.put(subtask.getId(), contribution);
+        if (previous != null) {
+            subtract(previous);
+        }
+        add(contribution);
+        return previous == null;
+    }
+
+    // Удаление сведений о подзадаче. Возвращает true, если подзадача была учтена
+    boolean remove(int subtaskId) {
+        Contribution previous = contributions.remove(subtaskId);
+        if (previous == null) {
+            return false;
+        }
+        subtract(previous);
+        return true;
+    }
+
+    boolean contains(int subtaskId) {
+        return contributions.containsKey(subtaskId);
+    }
+
+    // Идентификаторы учтенных подзадач в порядке добавления
+    int[] getSubtaskIds() {
+        int[] result = new int[contributions.size()];
+        int i = 0;
+        for (int subtaskId : contributions.keySet()) {
+            result[i++] = subtaskId;
+        }
+        return result;
+    }
+
+    // Подзадачи эпика в порядке добавления
+    ArrayList<Subtask> getSubtasks() {
+        ArrayList<Subtask> result = new ArrayList<>(contributions.size());
+        for (Contribution contribution : contributions.values()) {
+            result.add(contribution.subtask);
+        }
+        return result;
+    }
+
+    int size() {
+        return contributions.size();
+    }
+
+    void clear() {
+        contributions.clear();
+        startTimes.clear();
+        endTimes.clear();
+        totalDuration = Duration.ZERO;
+        durationsCount = 0;
+        for (int i = 0; i < statusCounters.length; i++) {
+            statusCounters[i] = 0;
+        }
+    }
+
+    // Перенос агрегированных значений в эпик
+    void applyTo(Epic epic) {
+        epic.setStatus(calculateStatus());
+        epic.setStartTime(startTimes.isEmpty() ? null : startTimes.firstKey());
+        epic.setEndTime(endTimes.isEmpty() ? null : endTimes.lastKey());
+        epic.setDuration(durationsCount == 0 ? null : totalDuration);
+    }
+
+    private TaskStatus calculateStatus() {
+        int total = contributions.size();
+        if (total == 0) {
+            return TaskStatus.NEW; //По умолчанию статус NEW
+        }
+        for (TaskStatus status : TaskStatus.values()) {
+            if (statusCounters[status.ordinal()] == total) {
+                //Статус всех подзадач одинаков, он и определяет статус эпика
+                return status;
+            }
+        }
+        //Подзадачи разнородные
+        return TaskStatus.IN_PROGRESS;
+    }
+
+    private void add(Contribution contribution) {
+        statusCounters[contribution.status.ordinal()]++;
+        increment(startTimes, contribution.startTime);
+        increment(endTimes, contribution.endTime);
+        if (contribution.duration != null) {
+            totalDuration = totalDuration.plus(contribution.duration);
+            durationsCount++;
+        }
+    }
+
+    private void subtract(Contribution contribution) {
+        statusCounters[contribution.status.ordinal()]--;
+        decrement(startTimes, contribution.startTime);
+        decrement(endTimes, contribution.endTime);
+        if (contribution.duration != null) {
+            totalDuration = totalDuration.minus(contribution.duration);
+            durationsCount--;
+        }
+    }
+
+    private static void increment(TreeMap<LocalDateTime, Integer> counters, LocalDateTime moment) {
+        if (moment != null) {
+            counters.merge(moment, 1, Integer::sum);
+        }
+    }
+
+    private static void decrement(TreeMap<LocalDateTime, Integer> counters, LocalDateTime moment) {
+        if (moment != null) {
+            counters.computeIfPresent(moment, (key, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    // Снимок значимых для эпика полей подзадачи на момент учета
+    private static class Contribution {
+        final Subtask subtask;
+        final TaskStatus status;
+        final LocalDateTime startTime;
+        final LocalDateTime endTime;
+        final Duration duration;
+
+        Contribution(Subtask subtask) {
+            this.subtask = subtask;
+            this.status = subtask.getStatus();
+            this.startTime = subtask.getStartTime();
+            this.duration = subtask.getDuration();
+            //Подзадача без продолжительности считается завершающейся в момент начала
+            this.endTime = (startTime != null && duration != null) ? subtask.getEndTime() : startTime;
+        }
+    }
+}
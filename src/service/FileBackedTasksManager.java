@@ -3,17 +3,59 @@ package service;
 import model.*;
 
 import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class FileBackedTasksManager extends InMemoryTaskManager {
     static final String BOM_MARKER = "\ufeff"; //для корректности открытия файла в ином ПО (EXCEL..)
     static final String FILE_HEADER = BOM_MARKER + "id,type,name,status,description,epic,startTime,duration";
     static final String LINE_SEPARATOR = System.getProperty("line.separator");
     static final String CSV_DELIMITER = ",";
+    static final String HISTORY_LOG_SUFFIX = ".history";
+    static final String TEMP_FILE_SUFFIX = ".tmp"; //Временный файл записи перед заменой
+    static final int IO_BUFFER_SIZE = 64 * 1024;
+    static final int PARALLEL_SEGMENT_MIN_SIZE = 1024 * 1024; //Минимальный размер участка параллельной загрузки
+    static final int PARALLEL_SEGMENTS_PER_CORE = 4; //Участков на ядро (для выравнивания нагрузки потоков)
+    static final int HISTORY_LOG_COMPACTION_THRESHOLD = 1000; //Количество записей журнала истории до сжатия
+    private static final int GZIP_MAGIC = 0x8B1F; //Первые байты файла в формате gzip (младший байт первым)
+    private static final String HISTORY_LOG_STAMP = "S"; //Запись-отметка снимка, к которому относится журнал
+    private static final String HISTORY_LOG_CHECKPOINT = "H"; //Запись с полной историей
     final private File file;
+    private final CsvCodec csvCodec = new CsvCodec(); //Разбор строк CSV при загрузке
+    private final List<String> csvValues = new ArrayList<>(); //Значения полей разбираемой строки
+    private boolean compressed = false; //Файл менеджера сохраняется сжатым (gzip)
+
+    //Журнал истории: обращения к задачам дописываются в "<файл>.history" без перезаписи файла менеджера
+    private Writer historyLogWriter;
+    private int historyLogRecords = 0; //Количество записей в журнале истории
+    private String snapshotStamp; //Отметка последнего сохраненного снимка, null - снимок не сохранялся
+
+    //Отложенное сохранение (write-behind)
+    private ScheduledExecutorService flusher; //Поток фонового сохранения, null - сохранение синхронное
+    private Thread shutdownHook; //Сохранение несохраненных изменений при завершении программы
+    private long maxDelayMillis; //Максимальная задержка сохранения изменения
+    private int maxPendingOps; //Количество несохраненных изменений, при котором сохранение выполняется сразу
+    private int pendingOps = 0; //Количество несохраненных изменений
+    private ScheduledFuture<?> scheduledFlush; //Запланированное фоновое сохранение
+    private ManagerSaveException backgroundFailure; //Ошибка фонового сохранения, еще не переданная вызывающему
 
     public static void main(String[] args) {
         File file = new File("kanban.csv");
@@ -67,11 +109,87 @@ public class FileBackedTasksManager extends InMemoryTaskManager {
         this.file = file;
     }
 
+    public FileBackedTasksManager(File file, TaskValidator timeValidator) {
+        super(timeValidator);
+        this.file = file;
+    }
+
     public static FileBackedTasksManager loadFromFile(File file) {
         FileBackedTasksManager fileBackedTasksManager = new FileBackedTasksManager(file);
-        try (BufferedReader fileReader = new BufferedReader(new FileReader(file))) {
-            while (fileReader.ready()) {
-                String line = fileReader.readLine();
+        fileBackedTasksManager.loadSnapshot();
+        fileBackedTasksManager.loadHistoryLog();
+        return fileBackedTasksManager;
+    }
+
+    // Загрузка с чтением файла, отображенного в память (MappedCsvReader)
+    public static FileBackedTasksManager loadFromFileMapped(File file) {
+        FileBackedTasksManager fileBackedTasksManager = new FileBackedTasksManager(file);
+        fileBackedTasksManager.loadSnapshotMapped();
+        fileBackedTasksManager.loadHistoryLog();
+        return fileBackedTasksManager;
+    }
+
+    // Параллельная загрузка: файл, отображенный в память, делится на участки по границам строк, участки
+    // разбираются параллельно, задачи добавляются в менеджер в порядке файла
+    public static FileBackedTasksManager loadFromFileParallel(File file) {
+        FileBackedTasksManager fileBackedTasksManager = new FileBackedTasksManager(file);
+        fileBackedTasksManager.loadSnapshotParallel();
+        fileBackedTasksManager.loadHistoryLog();
+        return fileBackedTasksManager;
+    }
+
+    // Загрузка из двоичного снимка (BinarySnapshot). Дальнейшие изменения сохраняются в файл менеджера
+    public static FileBackedTasksManager loadFromBinary(File binaryFile, File file) {
+        FileBackedTasksManager fileBackedTasksManager = new FileBackedTasksManager(file);
+        BinarySnapshot.read(binaryFile, fileBackedTasksManager);
+        return fileBackedTasksManager;
+    }
+
+    // Сохранение двоичного снимка (BinarySnapshot) текущих данных
+    public synchronized void saveBinary(File binaryFile) {
+        BinarySnapshot.write(this, binaryFile);
+    }
+
+    protected File getFile() {
+        return file;
+    }
+
+    // Сохранение файла менеджера в сжатом виде (gzip). При загрузке формат файла определяется по содержимому,
+    // и сжатый файл далее сохраняется сжатым
+    public synchronized void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    public synchronized boolean isCompressed() {
+        return compressed;
+    }
+
+    // Проверка, что файл сжат (gzip)
+    static boolean isCompressed(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return (in.read() | (in.read() << 8)) == GZIP_MAGIC;
+        }
+    }
+
+    // Поток чтения файла менеджера: сжатый файл распаковывается при чтении
+    private InputStream openSnapshot(InputStream source) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(source, IO_BUFFER_SIZE);
+        in.mark(2);
+        compressed = (in.read() | (in.read() << 8)) == GZIP_MAGIC;
+        in.reset();
+        return compressed ? new GZIPInputStream(in, IO_BUFFER_SIZE) : in;
+    }
+
+    // Загрузка задач и истории из файла менеджера. Отметка снимка (контрольная сумма файла) считается
+    // при чтении
+    protected void loadSnapshot() {
+        beginBulkLoad();
+        CRC32 checksum = new CRC32();
+        try (CheckedInputStream source = new CheckedInputStream(new FileInputStream(file), checksum);
+             BufferedReader fileReader = new BufferedReader(new InputStreamReader(openSnapshot(source),
+                Charset.defaultCharset()), IO_BUFFER_SIZE)) {
+            String line;
+            while ((line = fileReader.readLine()) != null) {
                 if (line.equals(FILE_HEADER)) {
                     //Пропускаем заголовок данных в файле
                     continue;
@@ -79,54 +197,663 @@ public class FileBackedTasksManager extends InMemoryTaskManager {
                 if (line.isEmpty()) {
                     //Пустая строка указывает на начало записи истории
                     line = fileReader.readLine();
-                    if (!line.isEmpty()) {
+                    if ((line != null) && !line.isEmpty()) {
                         //Загрузка истории
-                        fileBackedTasksManager.historyManager.clear();
+                        historyManager.clear();
 
                         List<Integer> ids = historyFromString(line);
                         for (Integer id : ids) {
-                            fileBackedTasksManager.historyManager.add(fileBackedTasksManager.getById(id));
+                            historyManager.add(findAnonimusly(id));
                         }
                     }
                     break;
 
                 } else {
                     //Выполняем заполнение задачей из строки
-                    fileBackedTasksManager.fromString(line);
+                    fromString(line);
+                }
+            }
+            //Остаток файла после истории учитывается в контрольной сумме без разбора
+            byte[] buffer = new byte[IO_BUFFER_SIZE];
+            while (source.read(buffer) >= 0) {
+                //Контрольная сумма считается при чтении
+            }
+            snapshotStamp = stampOf(file.length(), checksum.getValue());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            endBulkLoad();
+        }
+    }
+
+    // Загрузка задач и истории из файла менеджера, отображенного в память. Файл пишется в кодировке по
+    // умолчанию, поэтому при кодировке, отличной от UTF-8, а также для сжатого файла выполняется обычная
+    // загрузка
+    protected void loadSnapshotMapped() {
+        if (!isMappable()) {
+            loadSnapshot();
+            return;
+        }
+        beginBulkLoad();
+        try {
+            MappedCsvReader reader = MappedCsvReader.open(file);
+            reader.startChecksum(0);
+            boolean firstLine = true;
+            while (reader.nextLine()) {
+                if (firstLine && reader.lineToString().equals(FILE_HEADER.substring(BOM_MARKER.length()))) {
+                    //Пропускаем заголовок данных в файле
+                    firstLine = false;
+                    continue;
+                }
+                firstLine = false;
+                if (reader.isEmptyLine()) {
+                    //Пустая строка указывает на начало записи истории
+                    if (reader.nextLine() && !reader.isEmptyLine()) {
+                        historyManager.clear();
+                        for (int i = 0; i < reader.fieldCount(); i++) {
+                            historyManager.add(findAnonimusly(reader.intField(i)));
+                        }
+                    }
+                    break;
                 }
+                importMappedTask(reader);
             }
+            snapshotStamp = stampOf(reader.limit(), reader.finishChecksum());
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            endBulkLoad();
         }
-        return fileBackedTasksManager;
     }
 
-    public void save() {
-        StringBuilder fileContent = new StringBuilder(FILE_HEADER);
+    // Параллельная загрузка задач и истории из файла менеджера, отображенного в память. Участки файла
+    // разбираются в задачи параллельно (без обращения к менеджеру), затем задачи импортируются в порядке
+    // участков в режиме пакетной загрузки. Разбор участка заканчивается на пустой строке перед историей
+    protected void loadSnapshotParallel() {
+        if (!isMappable()) {
+            loadSnapshot();
+            return;
+        }
+        beginBulkLoad();
+        try {
+            MappedCsvReader reader = MappedCsvReader.open(file);
+            int dataStart = reader.position();
+            MappedCsvReader headerReader = reader.segment(dataStart, reader.limit());
+            if (headerReader.nextLine()
+                    && headerReader.lineToString().equals(FILE_HEADER.substring(BOM_MARKER.length()))) {
+                //Пропускаем заголовок данных в файле
+                dataStart = headerReader.position();
+            }
+
+            //Границы участков выравниваются на начало строки
+            int dataSize = reader.limit() - dataStart;
+            int segmentCount = Math.max(1, Math.min(
+                    Runtime.getRuntime().availableProcessors() * PARALLEL_SEGMENTS_PER_CORE,
+                    dataSize / PARALLEL_SEGMENT_MIN_SIZE));
+            int[] bounds = new int[segmentCount + 1];
+            bounds[0] = dataStart;
+            for (int i = 1; i < segmentCount; i++) {
+                bounds[i] = reader.lineStartFrom(dataStart + (int) ((long) dataSize * i / segmentCount));
+            }
+            bounds[segmentCount] = reader.limit();
 
-        //Собираем в общий список задачи/эпики/подзадачи
-        List<Task> tasks = this.getTasks();
-        tasks.addAll(this.getEpics());
-        tasks.addAll(this.getSubtasks());
+            List<ParsedSegment> segments = IntStream.range(0, segmentCount).parallel()
+                    .mapToObj(i -> parseSegment(reader.segment(bounds[i], bounds[i + 1])))
+                    .collect(Collectors.toList());
 
-        //Подготавливаем содержимое файла
-        for (Task task : tasks) {
-            fileContent.append(LINE_SEPARATOR);
-            fileContent.append(FileBackedTasksManager.toString(task));
+            //Отметка снимка: контрольная сумма заголовка объединяется с контрольными суммами участков
+            MappedCsvReader headerChecksumReader = reader.segment(0, dataStart);
+            headerChecksumReader.startChecksum(0);
+            long checksum = headerChecksumReader.finishChecksum();
+            for (int i = 0; i < segmentCount; i++) {
+                checksum = crc32Combine(checksum, segments.get(i).checksum, bounds[i + 1] - bounds[i]);
+            }
+            snapshotStamp = stampOf(reader.limit(), checksum);
+
+            for (ParsedSegment segment : segments) {
+                for (Task task : segment.tasks) {
+                    importParsedTask(task);
+                }
+                if (segment.historyStart >= 0) {
+                    //Загрузка истории
+                    MappedCsvReader historyReader = reader.segment(segment.historyStart, reader.limit());
+                    if (historyReader.nextLine() && !historyReader.isEmptyLine()) {
+                        historyManager.clear();
+                        for (int i = 0; i < historyReader.fieldCount(); i++) {
+                            historyManager.add(findAnonimusly(historyReader.intField(i)));
+                        }
+                    }
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            endBulkLoad();
         }
+    }
 
-        //Подготавливаем историю к записи
-        String stringHistory = FileBackedTasksManager.historyToString(this.historyManager);
+    // Проверка возможности разбора файла менеджера, отображенного в память
+    private boolean isMappable() {
+        try {
+            return StandardCharsets.UTF_8.equals(Charset.defaultCharset()) && !isCompressed(file);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Задачи, разобранные из участка файла. historyStart - начало строки истории, если участок содержит
+    // пустую строку перед историей, иначе -1. checksum - контрольная сумма (CRC32) всех байтов участка
+    private static class ParsedSegment {
+        final List<Task> tasks = new ArrayList<>();
+        int historyStart = -1;
+        long checksum;
+    }
+
+    private static ParsedSegment parseSegment(MappedCsvReader reader) {
+        ParsedSegment segment = new ParsedSegment();
+        reader.startChecksum(reader.position());
+        while (reader.nextLine()) {
+            if (reader.isEmptyLine()) {
+                //Пустая строка указывает на начало записи истории
+                segment.historyStart = reader.position();
+                break;
+            }
+            segment.tasks.add(parseMappedTask(reader));
+        }
+        segment.checksum = reader.finishChecksum();
+        return segment;
+    }
+
+    // Создание задачи/эпика/подзадачи из текущей строки отображенного файла и добавление в менеджер
+    private void importMappedTask(MappedCsvReader reader) {
+        importParsedTask(parseMappedTask(reader));
+    }
+
+    // Добавление задачи/эпика/подзадачи, созданной из строки файла, в менеджер
+    private void importParsedTask(Task task) {
+        Class<?> taskClass = task.getClass();
+        if (taskClass == Epic.class) {
+            super.importEpic((Epic) task);
+        } else if (taskClass == Subtask.class) {
+            Subtask subtask = (Subtask) task;
+            if (super.getEpicAnonimusly(subtask.getEpicId()) == null) {
+                throw new IllegalArgumentException("Подзадача " + subtask.getId()
+                        + " ссылается на отсутствующий эпик " + subtask.getEpicId());
+            }
+            super.importSubtask(subtask);
+        } else {
+            super.importTask(task);
+        }
+    }
+
+    // Создание задачи/эпика/подзадачи из текущей строки отображенного файла (без добавления в менеджер)
+    private static Task parseMappedTask(MappedCsvReader reader) {
+        int id = reader.intField(0);
+        String name = reader.stringField(2);
+        TaskStatus status = null;
+        for (TaskStatus value : TaskStatus.values()) {
+            if (reader.fieldEquals(3, value.name())) {
+                status = value;
+                break;
+            }
+        }
+        if (status == null) {
+            throw new IllegalArgumentException("Неизвестный статус задачи: " + reader.lineToString());
+        }
+        String description = reader.stringField(4);
 
-        if (!stringHistory.isEmpty()) {
-            fileContent.append(LINE_SEPARATOR);
-            fileContent.append(LINE_SEPARATOR);
-            fileContent.append(stringHistory);
+        if (reader.fieldEquals(1, "EPIC")) {
+            return new Epic(name, description, status, id);
         }
+        LocalDateTime startTime = reader.isEmpty(6) ? null : reader.dateTimeField(6);
+        Duration duration = reader.isEmpty(7) ? null : reader.durationField(7);
+        Task task;
+        if (reader.fieldEquals(1, "SUBTASK")) {
+            task = new Subtask(reader.intField(5), name, description, status, id);
+        } else if (reader.fieldEquals(1, "TASK")) {
+            task = new Task(name, description, status, id);
+        } else {
+            throw new IllegalArgumentException("Неизвестный тип задачи: " + reader.lineToString());
+        }
+        task.setStartTime(startTime);
+        task.setDuration(duration);
+        return task;
+    }
+
+    //==========================================================================================================
+    // Точки сохранения изменений. Вызываются после успешного изменения данных менеджера.
+    // По умолчанию любое изменение сохраняется полной перезаписью файла (save()): сразу либо, в режиме
+    // отложенного сохранения, в фоне одной записью для группы изменений. Наследники могут сохранять только
+    // само изменение.
+    //-----------------------------------------------------------------------------------------------------------
+
+    // Задача/эпик/подзадача добавлена или обновлена
+    protected void persistTask(Task task) {
+        requestSave();
+    }
+
+    // Задача/эпик/подзадача удалена (вместе с подзадачами для эпика)
+    protected void persistDelete(int id) {
+        requestSave();
+    }
+
+    // Удалены все задачи заданного типа (null - удалены все задачи, эпики, подзадачи и история)
+    protected void persistClear(TaskTypes type) {
+        requestSave();
+    }
+
+    // Обращение к задаче внесено в историю. Дописывается в журнал истории; пока снимок не сохранен,
+    // сохраняется вместе со снимком
+    protected void persistHistory(Task task) {
+        if (snapshotStamp == null) {
+            requestSave();
+            return;
+        }
+        appendHistoryLog(Integer.toString(task.getId()));
+        if (historyLogRecords >= HISTORY_LOG_COMPACTION_THRESHOLD) {
+            checkpointHistoryLog();
+        }
+    }
 
-        //Пишем файл
-        try (Writer fileWriter = new FileWriter(file)) {
-            fileWriter.write(fileContent.toString());
+    //==========================================================================================================
+    // Журнал истории "<файл>.history". Первая строка - отметка снимка (размер и контрольная сумма файла
+    // менеджера), журнал другого снимка при загрузке не применяется. Далее по строке на запись:
+    //   <id>          - обращение к задаче
+    //   H,<id>,<id>.. - полная история (сжатие журнала: журнал заменяется отметкой и полной историей)
+    // Сохранение снимка удаляет журнал, поскольку история входит в снимок.
+    //-----------------------------------------------------------------------------------------------------------
+
+    // Отметка загруженного или последнего сохраненного снимка (null - снимка нет)
+    String getSnapshotStamp() {
+        return snapshotStamp;
+    }
+
+    File getHistoryLogFile() {
+        return new File(file.getPath() + HISTORY_LOG_SUFFIX);
+    }
+
+    // Отметка снимка: размер и контрольная сумма (CRC32) файла менеджера
+    private static String stampOf(long length, long checksum) {
+        return HISTORY_LOG_STAMP + CSV_DELIMITER + length + CSV_DELIMITER + Long.toHexString(checksum);
+    }
+
+    // Контрольная сумма (CRC32) последовательности A+B по контрольным суммам A и B и длине B (алгоритм
+    // crc32_combine из zlib: сдвиг суммы A на длину B умножением на степени матрицы сдвига в GF(2))
+    static long crc32Combine(long checksum1, long checksum2, long length2) {
+        if (length2 <= 0) {
+            return checksum1;
+        }
+        long[] even = new long[32]; //Оператор сдвига на четное число нулевых битов
+        long[] odd = new long[32]; //Оператор сдвига на нечетное число нулевых битов
+
+        //Оператор сдвига на один нулевой бит (полином CRC32 в обратном порядке битов)
+        odd[0] = 0xEDB88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd); //Сдвиг на два нулевых бита
+        gf2MatrixSquare(odd, even); //Сдвиг на четыре нулевых бита
+
+        //Сдвиг суммы A на length2 нулевых байтов: первый квадрат дает сдвиг на один байт
+        long length = length2;
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length & 1) != 0) {
+                checksum1 = gf2MatrixTimes(even, checksum1);
+            }
+            length >>= 1;
+            if (length == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((length & 1) != 0) {
+                checksum1 = gf2MatrixTimes(odd, checksum1);
+            }
+            length >>= 1;
+        } while (length != 0);
+        return checksum1 ^ checksum2;
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        int i = 0;
+        while (vector != 0) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+            vector >>>= 1;
+            i++;
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+
+    // Отметка снимка по файлу (если она не посчитана при загрузке). Файл читается блоками, без загрузки
+    // целиком в память
+    private static String stampOf(File snapshotFile) throws IOException {
+        CRC32 checksum = new CRC32();
+        byte[] buffer = new byte[IO_BUFFER_SIZE];
+        try (InputStream in = new CheckedInputStream(new FileInputStream(snapshotFile), checksum)) {
+            while (in.read(buffer) >= 0) {
+                //Контрольная сумма считается при чтении
+            }
+        }
+        return stampOf(snapshotFile.length(), checksum.getValue());
+    }
+
+    private void appendHistoryLog(String record) {
+        try {
+            if (historyLogWriter == null) {
+                File historyLogFile = getHistoryLogFile();
+                boolean newLog = !historyLogFile.exists();
+                historyLogWriter = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(historyLogFile, true), StandardCharsets.UTF_8));
+                if (newLog) {
+                    historyLogWriter.write(snapshotStamp);
+                    historyLogWriter.write(LINE_SEPARATOR);
+                }
+            }
+            historyLogWriter.write(record);
+            historyLogWriter.write(LINE_SEPARATOR);
+            historyLogWriter.flush(); //Запись передается в файл сразу, без накопления в буфере
+        } catch (IOException e) {
+            throw new ManagerSaveException(e.getMessage());
+        }
+        historyLogRecords++;
+    }
+
+    // Сжатие журнала истории: журнал заменяется полной историей
+    private void checkpointHistoryLog() {
+        closeHistoryLog();
+        File historyLogFile = getHistoryLogFile();
+        File tempFile = new File(historyLogFile.getPath() + TEMP_FILE_SUFFIX);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+            writer.write(snapshotStamp);
+            writer.write(LINE_SEPARATOR);
+            writer.write(HISTORY_LOG_CHECKPOINT + CSV_DELIMITER + historyToString(historyManager));
+            writer.write(LINE_SEPARATOR);
+        } catch (IOException e) {
+            throw new ManagerSaveException(e.getMessage());
+        }
+        replaceFile(tempFile, historyLogFile);
+        historyLogRecords = 0;
+    }
+
+    private void closeHistoryLog() {
+        if (historyLogWriter == null) {
+            return;
+        }
+        try {
+            historyLogWriter.close();
+        } catch (IOException e) {
+            throw new ManagerSaveException(e.getMessage());
+        } finally {
+            historyLogWriter = null;
+        }
+    }
+
+    // Удаление журнала истории после сохранения снимка
+    private void resetHistoryLog(String stamp) {
+        closeHistoryLog();
+        File historyLogFile = getHistoryLogFile();
+        if (historyLogFile.exists() && !historyLogFile.delete()) {
+            throw new ManagerSaveException("Не удалось очистить журнал истории " + historyLogFile);
+        }
+        historyLogRecords = 0;
+        snapshotStamp = stamp;
+    }
+
+    // Применение журнала истории к загруженному снимку
+    protected void loadHistoryLog() {
+        File historyLogFile = getHistoryLogFile();
+        String content;
+        try {
+            if (snapshotStamp == null) {
+                snapshotStamp = stampOf(file);
+            }
+            if (!historyLogFile.exists()) {
+                return;
+            }
+            content = Files.readString(historyLogFile.toPath(), StandardCharsets.UTF_8);
+            if (!content.startsWith(snapshotStamp + LINE_SEPARATOR)) {
+                //Журнал относится к другому снимку (файл менеджера сохранен без журнала)
+                resetHistoryLog(snapshotStamp);
+                return;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        List<String> records = new ArrayList<>(content.lines().toList());
+        //Последняя запись без завершающего перевода строки записана не полностью (сбой во время записи)
+        boolean completeTail = content.endsWith("\n");
+        if (!completeTail) {
+            records.remove(records.size() - 1);
+        }
+        for (String record : records.subList(1, records.size())) {
+            try {
+                if (record.startsWith(HISTORY_LOG_CHECKPOINT + CSV_DELIMITER)) {
+                    historyManager.clear();
+                    String ids = record.substring(2);
+                    if (!ids.isEmpty()) {
+                        for (Integer id : historyFromString(ids)) {
+                            historyManager.add(findAnonimusly(id));
+                        }
+                    }
+                } else {
+                    historyManager.add(findAnonimusly(Integer.parseInt(record)));
+                }
+            } catch (RuntimeException e) {
+                throw new ManagerSaveException("Ошибка в записи журнала истории " + historyLogFile + ": " + record);
+            }
+            historyLogRecords++;
+        }
+        if (!completeTail) {
+            //Неполная запись не должна оставаться в журнале перед новыми записями
+            checkpointHistoryLog();
+        }
+    }
+
+    //==========================================================================================================
+    // Отложенное сохранение (write-behind). Изменение только отмечается как несохраненное, а фоновый поток
+    // выполняет одно сохранение для всех изменений, накопленных за maxDelay. Если накоплено maxPendingOps
+    // изменений, сохранение запускается без ожидания. Методы изменения данных и сохранение синхронизированы
+    // по менеджеру, поэтому фоновое сохранение всегда видит согласованное состояние.
+    // Несохраненные изменения записываются вызовом flush(), при отключении режима и при завершении программы.
+    // Ошибка фонового сохранения запоминается и выбрасывается (ManagerSaveException) следующим вызовом flush()
+    // или save(); изменения остаются несохраненными, фоновое сохранение повторяется после задержки. Успешное
+    // повторное сохранение в фоне ошибку сбрасывает.
+    //-----------------------------------------------------------------------------------------------------------
+
+    public synchronized void enableWriteBehind(Duration maxDelay, int maxPendingOps) {
+        if ((maxDelay == null) || maxDelay.isNegative()) {
+            throw new IllegalArgumentException("Недопустимая задержка сохранения: " + maxDelay);
+        }
+        if (maxPendingOps < 1) {
+            throw new IllegalArgumentException("Недопустимое количество несохраненных изменений: " + maxPendingOps);
+        }
+        this.maxDelayMillis = maxDelay.toMillis();
+        this.maxPendingOps = maxPendingOps;
+        if (flusher != null) {
+            return;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "FileBackedTasksManager-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        shutdownHook = new Thread(this::shutdownFlush, "FileBackedTasksManager-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    // Отключение отложенного сохранения: несохраненные изменения записываются, далее сохранение синхронное
+    public void disableWriteBehind() {
+        ScheduledExecutorService stoppedFlusher;
+        synchronized (this) {
+            if (flusher == null) {
+                return;
+            }
+            flush();
+            stoppedFlusher = flusher;
+            flusher = null;
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                //Программа уже завершается, обработчик будет выполнен
+            }
+            shutdownHook = null;
+        }
+        stoppedFlusher.shutdown();
+    }
+
+    public synchronized boolean isWriteBehindEnabled() {
+        return flusher != null;
+    }
+
+    // Количество изменений, ожидающих сохранения
+    public synchronized int getPendingOps() {
+        return pendingOps;
+    }
+
+    // Немедленное сохранение накопленных изменений
+    public synchronized void flush() {
+        throwBackgroundFailure();
+        savePending();
+    }
+
+    // Сохранение при завершении программы: передать ошибку фонового сохранения некому, выполняется
+    // последняя попытка сохранения
+    private synchronized void shutdownFlush() {
+        backgroundFailure = null;
+        savePending();
+    }
+
+    // Передача вызывающему ошибки фонового сохранения (однократно)
+    protected synchronized void throwBackgroundFailure() {
+        ManagerSaveException failure = backgroundFailure;
+        if (failure != null) {
+            backgroundFailure = null;
+            throw new ManagerSaveException("Ошибка фонового сохранения: " + failure.getMessage());
+        }
+    }
+
+    private void savePending() {
+        cancelScheduledFlush();
+        if (pendingOps == 0) {
+            return;
+        }
+        save();
+        pendingOps = 0;
+    }
+
+    // Сохранение изменения: сразу или, в режиме отложенного сохранения, в фоне
+    protected synchronized void requestSave() {
+        if (flusher == null) {
+            save();
+            return;
+        }
+        pendingOps++;
+        if (pendingOps >= maxPendingOps) {
+            cancelScheduledFlush();
+            scheduledFlush = flusher.schedule(this::backgroundFlush, 0, TimeUnit.MILLISECONDS);
+        } else if (scheduledFlush == null) {
+            scheduledFlush = flusher.schedule(this::backgroundFlush, maxDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void backgroundFlush() {
+        scheduledFlush = null;
+        backgroundFailure = null; //Повторная попытка: прежняя ошибка заменяется результатом этой попытки
+        try {
+            savePending();
+        } catch (RuntimeException e) {
+            //Изменения остаются несохраненными: ошибка передается следующему flush()/save(), попытка
+            //повторяется после задержки
+            backgroundFailure = (e instanceof ManagerSaveException) ? (ManagerSaveException) e
+                    : new ManagerSaveException(String.valueOf(e.getMessage()));
+            if (flusher != null) {
+                scheduledFlush = flusher.schedule(this::backgroundFlush, maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void cancelScheduledFlush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
+    // Сохранение снимка. Строки пишутся в буферизованный поток по мере обхода хранилищ, без сборки файла
+    // в памяти (в режиме сжатия - через сжимающий поток). Запись выполняется во временный файл, который
+    // после сброса на диск атомарно заменяет файл менеджера, поэтому при сбое файл менеджера остается
+    // прежним, а не усеченным. Контрольная сумма отметки снимка считается по байтам файла
+    public synchronized void save() {
+        throwBackgroundFailure();
+        File tempFile = new File(file.getPath() + TEMP_FILE_SUFFIX);
+        CRC32 checksum = new CRC32();
+        try (FileOutputStream out = new FileOutputStream(tempFile);
+             CheckedOutputStream checkedOut = new CheckedOutputStream(out, checksum);
+             GZIPOutputStream gzipOut = compressed ? new GZIPOutputStream(checkedOut, IO_BUFFER_SIZE) : null;
+             Writer writer = new BufferedWriter(new OutputStreamWriter((gzipOut != null) ? gzipOut : checkedOut,
+                     Charset.defaultCharset()), IO_BUFFER_SIZE)) {
+            writer.write(FILE_HEADER);
+
+            //Пишем задачи/эпики/подзадачи
+            StringBuilder line = new StringBuilder();
+            writeTasks(writer, line, getTasksAnonimusly());
+            writeTasks(writer, line, getEpicsAnonimusly());
+            writeTasks(writer, line, getSubtasksAnonimusly());
+
+            //Пишем историю
+            boolean first = true;
+            for (Task task : historyManager.getHistory()) {
+                writer.write(first ? LINE_SEPARATOR + LINE_SEPARATOR : CSV_DELIMITER);
+                writer.write(Integer.toString(task.getId()));
+                first = false;
+            }
+
+            writer.flush();
+            if (gzipOut != null) {
+                gzipOut.finish();
+            }
+            out.getFD().sync(); //Данные должны оказаться на диске до замены файла менеджера
+        } catch (IOException e) {
+            throw new ManagerSaveException(e.getMessage());
+        }
+        replaceFile(tempFile, file);
+
+        //История сохранена в снимке, журнал истории больше не нужен
+        resetHistoryLog(stampOf(file.length(), checksum.getValue()));
+    }
+
+    private static void writeTasks(Writer writer, StringBuilder line, Iterable<? extends Task> tasks)
+            throws IOException {
+        for (Task task : tasks) {
+            line.setLength(0);
+            line.append(LINE_SEPARATOR);
+            appendCsv(line, task);
+            writer.append(line);
+        }
+    }
+
+    // Атомарная замена файла (если файловая система не поддерживает атомарное перемещение - обычная замена)
+    static void replaceFile(File source, File target) {
+        try {
+            try {
+                Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
         } catch (IOException e) {
             throw new ManagerSaveException(e.getMessage());
         }
@@ -136,7 +863,7 @@ public class FileBackedTasksManager extends InMemoryTaskManager {
         List<String> historyIds = new ArrayList<>();
         List<Task> history = manager.getHistory();
         for (Task task : history) {
-            historyIds.add(task.getId().toString());
+            historyIds.add(Integer.toString(task.getId()));
         }
         return String.join(CSV_DELIMITER, historyIds);
     }
@@ -153,87 +880,65 @@ public class FileBackedTasksManager extends InMemoryTaskManager {
         return ids;
     }
 
-    // Добавляем пары двойных кавычек ("->"") для хранения в CSV файле
-    private static String twinQuotes(String input) {
-        return input.replaceAll("\"", "\"\"");
-    }
-
-    // Убираем пары двойных кавычек (""->"), добавленных для хранения в CSV файле
-    private static String removeTwinQuotes(String input) {
-        return input.replaceAll("\"\"", "\"");
+    static String toString(Task task) {
+        StringBuilder line = new StringBuilder();
+        appendCsv(line, task);
+        return line.toString();
     }
 
-    static String toString(Task task) {
-        List<String> taskFields = new ArrayList<>();
-
-        taskFields.add(task.getId().toString());
-        taskFields.add(task.getClass().getSimpleName().toUpperCase());
-        taskFields.add(twinQuotes(task.getName()));
-        taskFields.add(task.getStatus().toString());
-        taskFields.add(twinQuotes(task.getDiscription()));
-        if (task.getClass() == Subtask.class) {
-            taskFields.add(((Subtask) task).getEpicId().toString());
+    // Запись задачи/эпика/подзадачи строкой CSV (без перевода строки)
+    static void appendCsv(StringBuilder line, Task task) {
+        Class<?> taskClass = task.getClass();
+        CsvCodec.appendField(line, task.getId());
+        line.append(CsvCodec.DELIMITER);
+        CsvCodec.appendField(line, (taskClass == Epic.class) ? TaskTypes.EPIC.name()
+                : (taskClass == Subtask.class) ? TaskTypes.SUBTASK.name() : TaskTypes.TASK.name());
+        line.append(CsvCodec.DELIMITER);
+        CsvCodec.appendField(line, task.getName());
+        line.append(CsvCodec.DELIMITER);
+        CsvCodec.appendField(line, task.getStatus().name());
+        line.append(CsvCodec.DELIMITER);
+        CsvCodec.appendField(line, task.getDiscription());
+        line.append(CsvCodec.DELIMITER);
+        if (taskClass == Subtask.class) {
+            CsvCodec.appendField(line, ((Subtask) task).getEpicId());
         } else {
-            taskFields.add("");
+            CsvCodec.appendField(line, "");
         }
-        if (task.getClass() != Epic.class) {
-            taskFields.add((task.getStartTime() != null ? task.getStartTime().toString() : ""));
-            taskFields.add((task.getDuration() != null ? task.getDuration().toString() : ""));
+        line.append(CsvCodec.DELIMITER);
+        if (taskClass != Epic.class) {
+            CsvCodec.appendField(line, (task.getStartTime() != null) ? task.getStartTime().toString() : "");
+            line.append(CsvCodec.DELIMITER);
+            CsvCodec.appendField(line, (task.getDuration() != null) ? task.getDuration().toString() : "");
         } else {
-            taskFields.add("");
-            taskFields.add("");
-        }
-        return '"' + String.join("\"" + CSV_DELIMITER + "\"", taskFields) + '"';
-    }
-
-    //Определяем количество повторов символа с конца строки
-    static int tailQuotesReps(String value) {
-        int i = value.length();
-        if (i == 0) {
-            return 0;
-        }
-        while (value.charAt(i - 1) == '"') {
-            i--;
+            CsvCodec.appendField(line, "");
+            line.append(CsvCodec.DELIMITER);
+            CsvCodec.appendField(line, "");
         }
-        return value.length() - i;
     }
 
-    private List<String> valuesFromCSVString(String CSVLine) {
-        //Разбиваем строку по запятой
-        String[] parts = CSVLine.split(CSV_DELIMITER);
-        //Склеиваем обратно строки, которые были разделены на предыдущем этапе, но
-        //такое разделение было выполнено по разделителям "внутри" значения поля.
-        //Признаком будет нечетное количество кавычек в конце части строки (остается после "лишнего" разделения).
-        //Пример строки: "Описание подзадачи 1 эпика 1 ""Зачётная"",""Классная"""
-        //Решение через регулярные выражения было слишком громоздким и трудночитаемым
-        List<String> values = new ArrayList<>();
-        StringBuilder fieldValue = new StringBuilder();
-
-        for (String part : parts) {
-            part = part.substring(1, part.length() - 1);
-            if (tailQuotesReps(part) % 2 == 0) {
-                //Четное количество кавычек или их отсутствие - признак правильного разделения
-                fieldValue.append(part);
-                values.add(removeTwinQuotes(fieldValue.toString()));
-                fieldValue.setLength(0);
-            } else {
-                //Нечетное количество кавычек. Присоединяем этот кусок строки, через
-                //удаленный на предыдщуем этапе разделитель
-
-                fieldValue.append(part);
-                fieldValue.append("\"");
-                fieldValue.append(CSV_DELIMITER);
-                fieldValue.append("\"");
-            }
+    private Task fromString(String value) {
+        Task task = parseTask(value);
+        switch (TaskTypes.valueOf(task.getClass().getSimpleName().toUpperCase())) {
+            case TASK:
+                super.importTask(task);
+                break;
+            case EPIC:
+                super.importEpic((Epic) task);
+                break;
+            case SUBTASK:
+                super.importSubtask((Subtask) task);
+                break;
         }
-        values.add(fieldValue.toString());
-        return values;
+        return task;
     }
 
-    private Task fromString(String value) {
+    // Создание задачи/эпика/подзадачи из строки CSV (без добавления в менеджер)
+    protected Task parseTask(String value) {
 
-        //Нормализуем строку, превращаем в набор значений для полей
-        List<String> values = valuesFromCSVString(value);
+        //Разбираем строку в набор значений для полей
+        List<String> values = csvValues;
+        csvCodec.parseLine(value, values);
 
         int id = Integer.parseInt(values.get(0));
         TaskTypes type = TaskTypes.valueOf(values.get(1));
@@ -254,18 +959,14 @@ public class FileBackedTasksManager extends InMemoryTaskManager {
                 Task task = new Task(name, description, status, id);
                 task.setStartTime(startTime);
                 task.setDuration(duration);
-                super.importTask(task);
                 return task;
             case EPIC:
-                Epic epic = new Epic(name, description, status, id);
-                super.importEpic(epic);
-                return epic;
+                return new Epic(name, description, status, id);
             case SUBTASK:
                 Epic parentEpic = super.getEpicAnonimusly(Integer.parseInt(values.get(5)));
                 Subtask subtask = new Subtask(parentEpic, name, description, status, id);
                 subtask.setStartTime(startTime);
                 subtask.setDuration(duration);
-                super.importSubtask(subtask);
                 return subtask;
         }
 
@@ -273,141 +974,165 @@ public class FileBackedTasksManager extends InMemoryTaskManager {
     }
 
     @Override
-    public Task appendTask(Task task) throws TaskValidatorException {
+    public synchronized Task appendTask(Task task) throws TaskValidatorException {
         if (super.appendTask(task) != null) {
-            save();
+            persistTask(task);
         }
         return task;
     }
 
     @Override
-    public Epic appendEpic(Epic epic) throws TaskValidatorException {
+    public synchronized Epic appendEpic(Epic epic) throws TaskValidatorException {
         if (super.appendEpic(epic) != null) {
-            save();
+            persistTask(epic);
         }
         return epic;
     }
 
     @Override
-    public Subtask appendSubtask(Subtask subtask) throws TaskValidatorException {
+    public synchronized Subtask appendSubtask(Subtask subtask) throws TaskValidatorException {
         if (super.appendSubtask(subtask) != null) {
-            save();
+            persistTask(subtask);
         }
         return subtask;
     }
 
     @Override
-    public Task updateTask(Task task) throws TaskValidatorException {
+    public synchronized Task updateTask(Task task) throws TaskValidatorException {
         if (super.updateTask(task) != null) {
-            save();
+            persistTask(task);
         }
         return task;
     }
 
     @Override
-    public Epic updateEpic(Epic epic) throws TaskValidatorException {
+    public synchronized Epic updateEpic(Epic epic) throws TaskValidatorException {
         if (super.updateEpic(epic) != null) {
-            save();
+            persistTask(epic);
         }
         return epic;
     }
 
     @Override
-    public Subtask updateSubtask(Subtask subtask) throws TaskValidatorException {
+    public synchronized Subtask updateSubtask(Subtask subtask) throws TaskValidatorException {
         if (super.updateSubtask(subtask) != null) {
-            save();
+            persistTask(subtask);
         }
         return subtask;
     }
 
     @Override
-    public boolean delete(Integer id) {
-        if (super.deleteTask(id) || super.deleteSubtask(id) || super.deleteEpic(id)) {
-            save();
+    public synchronized boolean delete(Integer id) {
+        if (super.delete(id)) {
+            persistDelete(id);
             return true;
         }
         return false;
     }
 
     @Override
-    public boolean deleteTask(Integer id) {
+    public synchronized boolean deleteTask(Integer id) {
         if (super.deleteTask(id)) {
-            save();
+            persistDelete(id);
             return true;
         }
         return false;
     }
 
     @Override
-    public boolean deleteSubtask(Integer id) {
+    public synchronized boolean deleteSubtask(Integer id) {
         if (super.deleteSubtask(id)) {
-            save();
+            persistDelete(id);
             return true;
         }
         return false;
     }
 
     @Override
-    public boolean deleteEpic(Integer id) {
+    public synchronized boolean deleteEpic(Integer id) {
         if (super.deleteEpic(id)) {
-            save();
+            persistDelete(id);
             return true;
         }
         return false;
     }
 
     @Override
-    public void clearTasks() {
+    public synchronized void clearTasks() {
         super.clearTasks();
-        save();
+        persistClear(TaskTypes.TASK);
     }
 
     @Override
-    public void clearEpics() {
+    public synchronized void clearEpics() {
         super.clearEpics();
-        save();
+        persistClear(TaskTypes.EPIC);
     }
 
     @Override
-    public void clearSubtasks() {
+    public synchronized void clearSubtasks() {
         super.clearSubtasks();
-        save();
+        persistClear(TaskTypes.SUBTASK);
     }
 
     @Override
-    public void clearAll() {
+    public synchronized void clearAll() {
         super.clearAll();
-        save();
+        persistClear(null);
     }
 
     @Override
-    public Task getTask(Integer id) {
+    public synchronized Task getTask(Integer id) {
         Task result = super.getTask(id);
         if (result != null) {
-            save();
+            persistHistory(result);
         }
         return result;
     }
 
     @Override
-    public Epic getEpic(Integer id) {
+    public synchronized Epic getEpic(Integer id) {
         Epic result = super.getEpic(id);
         if (result != null) {
-            save();
+            persistHistory(result);
         }
         return result;
     }
 
     @Override
-    public Subtask getSubtask(Integer id) {
+    public synchronized Subtask getSubtask(Integer id) {
         Subtask result = super.getSubtask(id);
         if (result != null) {
-            save();
+            persistHistory(result);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized Task find(int id) {
+        Task result = super.find(id);
+        if (result != null) {
+            persistHistory(result);
         }
         return result;
     }
 
+    // Выборки индекса приоритетов копируются при блокировке менеджера
+    @Override
+    public synchronized List<Task> getPrioritizedTasks() {
+        return super.getPrioritizedTasks();
+    }
+
+    @Override
+    public synchronized List<Task> getPrioritizedTasks(LocalDateTime from, LocalDateTime to) {
+        return super.getPrioritizedTasks(from, to);
+    }
 
+    @Override
+    public synchronized List<Task> getPrioritizedTasks(LocalDateTime from, LocalDateTime to, int offset,
+                                                       int limit) {
+        return super.getPrioritizedTasks(from, to, offset, limit);
+    }
 }
 
 
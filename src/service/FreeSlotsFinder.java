@@ -0,0 +1,20 @@
+package service;
+
+import model.TimeSlot;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+//==========================================================================================================
+// Поиск свободного времени по сведениям о занятости, которые ведет валидатор пересечений во времени.
+// Свободный период [start, end) описывает время, в которое можно разместить задачу продолжительностью
+// duration: задача с любым временем начала от start до (end - duration) пройдет валидацию.
+//-----------------------------------------------------------------------------------------------------------
+
+public interface FreeSlotsFinder {
+
+    // Не более count самых ранних свободных периодов в пределах [from, to), вмещающих задачу
+    // продолжительностью duration
+    List<TimeSlot> findFreeSlots(Duration duration, LocalDateTime from, LocalDateTime to, int count);
+}
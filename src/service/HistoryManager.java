@@ -7,7 +7,7 @@ import java.util.List;
 public interface HistoryManager {
     void add(Task task);
 
-    void remove(Integer id);
+    void remove(int id);
 
     void clear();
 
@@ -3,78 +3,360 @@ package service;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 import model.Epic;
 import model.Subtask;
 import model.Task;
+import model.TaskTypes;
 import service.adapters.DurationAdapter;
 import service.adapters.LocalDateTimeAdapter;
 
+//==========================================================================================================
+// Менеджер, хранящий данные на KVServer. Каждая задача/эпик/подзадача хранится под своим ключом
+// ("task/<id>", "epic/<id>", "subtask/<id>"), элемент истории - под ключом "history/<id>" со значением
+// порядкового номера последнего обращения (история упорядочена по возрастанию номеров). Изменения
+// отмечаются в наборе измененных задач, и сохранение передает только их: измененные задачи и их эпики,
+// удаления ключей и новые обращения к задачам - одним пакетным запросом. Загрузка выполняется пакетным
+// запросом на каждый вид ключей (task/, epic/, subtask/, history/), прочие ключи хранилища не читаются.
+// Пакет сохранения отправляется асинхронно: save() не ждет ответа KVServer, последовательные сохранения
+// выполняются одновременно в пределах окна клиента с сохранением порядка изменений каждого ключа. Места
+// в окне save() не ждет (ожидание под блокировкой менеджера задержало бы все его вызовы): при заполненном
+// окне пакет остается несохраненным и отправляется следующим сохранением. flush() отправляет его и
+// дожидается завершения отправленных сохранений.
+// Пакет, не принятый KVServer (ошибка запроса), не теряется: его значения отправляются повторно со следующим
+// пакетом, кроме ключей, отправленных позже в другом пакете. flush() повторяет отправку и, если пакет снова
+// не принят, выбрасывает ManagerSaveException.
+//-----------------------------------------------------------------------------------------------------------
+
 public class HttpTaskManager extends FileBackedTasksManager {
+    static final String TASK_KEY_PREFIX = "task/";
+    static final String EPIC_KEY_PREFIX = "epic/";
+    static final String SUBTASK_KEY_PREFIX = "subtask/";
+    static final String HISTORY_KEY_PREFIX = "history/";
+
     private final KVTaskClient kvTaskClient;
 
+    //Состояние хранилища (по последнему сохранению)
+    private final Map<Integer, String> storedKeys = new HashMap<>(); //id задачи -> ключ
+    private final Map<Integer, Integer> storedEpicIds = new HashMap<>(); //id подзадачи -> id эпика
+    private final Map<Integer, Set<Integer>> storedSubtaskIds = new HashMap<>(); //id эпика -> id подзадач
+    private final Set<Integer> storedHistoryIds = new HashSet<>(); //id задач, сохраненных в истории
+    private long historySequence = 0; //Номер последнего обращения к задаче
+
+    //Несохраненные изменения
+    private final Set<Integer> dirtyIds = new LinkedHashSet<>(); //Добавленные, измененные и удаленные задачи
+    private final Map<Integer, Long> dirtyHistory = new LinkedHashMap<>(); //id задачи -> номер обращения
+    private final Map<String, String> batch = new LinkedHashMap<>(); //Пакет сохранения (null - удаление ключа)
+
+    //Отправленные пакеты. Изменяются также потоками завершения запросов, поэтому без блокировки менеджера
+    private long batchSequence = 0; //Номер последнего отправленного пакета
+    private final Map<String, Long> sentKeys = new ConcurrentHashMap<>(); //Ключ -> номер пакета без ответа
+    private final Queue<FailedBatch> failedBatches = new ConcurrentLinkedQueue<>(); //Не принятые пакеты
+    private final Set<CompletableFuture<?>> pendingBatches = ConcurrentHashMap.newKeySet(); //Пакеты без ответа
+
+    // Пакет сохранения, не принятый KVServer
+    private static class FailedBatch {
+        final long sequence;
+        final Map<String, String> entries;
+
+        FailedBatch(long sequence, Map<String, String> entries) {
+            this.sequence = sequence;
+            this.entries = entries;
+        }
+    }
+
     public HttpTaskManager(String url) {
         super(null);
         this.kvTaskClient = new KVTaskClient(url);
         load();
     }
 
-    private Gson createGson() {
+    //Gson потокобезопасен и создается один раз; JSON записывается компактно, без форматирования
+    private static final Gson GSON = createGson();
+
+    private static Gson createGson() {
         GsonBuilder gsonBuilder = new GsonBuilder();
         gsonBuilder.serializeNulls();
         gsonBuilder.registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter());
         gsonBuilder.registerTypeAdapter(Duration.class, new DurationAdapter());
-        gsonBuilder.setPrettyPrinting();
         return gsonBuilder.create();
     }
 
+    // Сохранение несохраненных изменений
     @Override
-    public void save() {
-        Gson gson = createGson();
-        kvTaskClient.put("tasks", gson.toJson(getTasks()));
-        kvTaskClient.put("epics", gson.toJson(getEpics()));
-        kvTaskClient.put("subtasks", gson.toJson(getSubtasks()));
-        kvTaskClient.put("history", gson.toJson(getHistory()));
+    public synchronized void save() {
+        throwBackgroundFailure();
+        //Значения не принятых пакетов отправляются повторно; более новые значения пакета (в том числе
+        //оставшиеся в нем с прошлого сохранения) их заменяют
+        FailedBatch failed;
+        while ((failed = failedBatches.poll()) != null) {
+            for (Map.Entry<String, String> entry : failed.entries.entrySet()) {
+                if (sentKeys.remove(entry.getKey(), failed.sequence)) {
+                    batch.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        //Изменение подзадачи меняет сведения ее эпиков (прежнего и текущего), они сохраняются следом
+        Set<Integer> changedEpicIds = new LinkedHashSet<>();
+        for (Integer id : dirtyIds) {
+            storeTask(id, changedEpicIds);
+        }
+        for (Integer epicId : changedEpicIds) {
+            if (!dirtyIds.contains(epicId)) {
+                storeTask(epicId, changedEpicIds);
+            }
+        }
+        dirtyIds.clear();
+
+        for (Map.Entry<Integer, Long> entry : dirtyHistory.entrySet()) {
+            if (findAnonimusly(entry.getKey()) == null) {
+                //Задача удалена до сохранения
+                continue;
+            }
+            batch.put(HISTORY_KEY_PREFIX + entry.getKey(), entry.getValue().toString());
+            storedHistoryIds.add(entry.getKey());
+        }
+        dirtyHistory.clear();
+
+        if (!batch.isEmpty() && send(new LinkedHashMap<>(batch))) {
+            batch.clear();
+        }
     }
 
-    public void load() {
-        Gson gson = createGson();
-        List<Task> tasks = gson.fromJson(kvTaskClient.load("tasks"),
-                new TypeToken<ArrayList<Task>>() {
-                }.getType());
-        if (tasks != null) {
-            for (Task task : tasks) {
-                this.importTask(task);
+    // Отправка пакета без ожидания места в окне клиента (save() выполняется под блокировкой менеджера).
+    // Возвращает false, если окно заполнено: пакет остается несохраненным до следующего сохранения или flush().
+    // Ответ обрабатывается в потоке завершения запроса: ключи принятого пакета снимаются с учета, не принятый
+    // пакет ставится в очередь повторной отправки
+    private boolean send(Map<String, String> entries) {
+        long sequence = ++batchSequence;
+        for (String key : entries.keySet()) {
+            sentKeys.put(key, sequence);
+        }
+        CompletableFuture<String> request;
+        try {
+            request = kvTaskClient.tryPutAllAsync(entries);
+        } catch (RuntimeException e) {
+            unmarkSent(entries, sequence);
+            throw new ManagerSaveException("Пакет сохранения не отправлен: " + e.getMessage());
+        }
+        if (request == null) {
+            unmarkSent(entries, sequence);
+            return false;
+        }
+        CompletableFuture<Void> completion = request.handle((result, e) -> {
+            if ((result == null) || (e != null)) {
+                failedBatches.add(new FailedBatch(sequence, entries));
+            } else {
+                for (String key : entries.keySet()) {
+                    sentKeys.remove(key, sequence);
+                }
             }
+            return null;
+        });
+        pendingBatches.add(completion);
+        completion.whenComplete((v, e) -> pendingBatches.remove(completion));
+        return true;
+    }
+
+    private void unmarkSent(Map<String, String> entries, long sequence) {
+        for (String key : entries.keySet()) {
+            sentKeys.remove(key, sequence);
+        }
+    }
+
+    // Сохранение накопленных изменений и ожидание завершения отправленных сохранений. Не принятые пакеты
+    // и пакет, не отправленный из-за заполненного окна клиента, отправляются повторно (после завершения
+    // отправленных запросов); если KVServer снова их не принял, выбрасывается ManagerSaveException
+    @Override
+    public synchronized void flush() {
+        super.flush();
+        if (!failedBatches.isEmpty() || !batch.isEmpty()) {
+            save();
+        }
+        while (!batch.isEmpty()) {
+            awaitBatches();
+            save();
+        }
+        awaitBatches();
+        if (!failedBatches.isEmpty()) {
+            throw new ManagerSaveException("Пакет сохранения не принят KVServer, изменения будут отправлены "
+                    + "повторно при следующем сохранении");
+        }
+    }
+
+    private void awaitBatches() {
+        for (CompletableFuture<?> completion : new ArrayList<>(pendingBatches)) {
+            completion.join();
         }
-        List<Epic> epics = gson.fromJson(kvTaskClient.load("epics"),
-                new TypeToken<ArrayList<Epic>>() {
-                }.getType());
-        if (epics != null) {
-            for (Epic epic : epics) {
-                this.importEpic(epic);
+        kvTaskClient.awaitPending();
+    }
+
+    // Сохранение задачи в хранилище либо удаление ее ключа, если задача удалена
+    private void storeTask(int id, Set<Integer> changedEpicIds) {
+        Task task = findAnonimusly(id);
+        if (task != null) {
+            String key = keyOf(getTypeOf(id), id);
+            storedKeys.put(id, key);
+            batch.put(key, GSON.toJson(task));
+            if (task instanceof Subtask) {
+                int epicId = ((Subtask) task).getEpicId();
+                Integer storedEpicId = storedEpicIds.put(id, epicId);
+                if ((storedEpicId != null) && (storedEpicId != epicId)) {
+                    detachStoredSubtask(storedEpicId, id);
+                    changedEpicIds.add(storedEpicId);
+                }
+                storedSubtaskIds.computeIfAbsent(epicId, k -> new HashSet<>()).add(id);
+                changedEpicIds.add(epicId);
             }
+            return;
+        }
+
+        if (!deleteStoredTask(id)) {
+            return;
         }
-        List<Subtask> subtasks = gson.fromJson(kvTaskClient.load("subtask"),
-                new TypeToken<ArrayList<Subtask>>() {
-                }.getType());
-        if (subtasks != null) {
-            for (Subtask subtask : subtasks) {
-                this.importSubtask(subtask);
+        Integer epicId = storedEpicIds.remove(id);
+        if (epicId != null) {
+            detachStoredSubtask(epicId, id);
+            changedEpicIds.add(epicId);
+        }
+        //Подзадачи удаляются вместе с эпиком
+        Set<Integer> subtaskIds = storedSubtaskIds.remove(id);
+        if (subtaskIds != null) {
+            for (Integer subtaskId : subtaskIds) {
+                if (findAnonimusly(subtaskId) == null) {
+                    deleteStoredTask(subtaskId);
+                    storedEpicIds.remove(subtaskId);
+                }
             }
         }
+    }
+
+    private void detachStoredSubtask(int epicId, int subtaskId) {
+        Set<Integer> subtaskIds = storedSubtaskIds.get(epicId);
+        if (subtaskIds != null) {
+            subtaskIds.remove(subtaskId);
+        }
+    }
+
+    // Удаление ключа задачи и ее элемента истории из хранилища. Возвращает false, если задача не сохранялась
+    private boolean deleteStoredTask(int id) {
+        String key = storedKeys.remove(id);
+        if (key == null) {
+            return false;
+        }
+        batch.put(key, null);
+        dirtyHistory.remove(id);
+        if (storedHistoryIds.remove(id)) {
+            batch.put(HISTORY_KEY_PREFIX + id, null);
+        }
+        return true;
+    }
+
+    private static String keyOf(TaskTypes type, int id) {
+        return keyPrefixOf(type) + id;
+    }
+
+    private static String keyPrefixOf(TaskTypes type) {
+        switch (type) {
+            case EPIC:
+                return EPIC_KEY_PREFIX;
+            case SUBTASK:
+                return SUBTASK_KEY_PREFIX;
+            default:
+                return TASK_KEY_PREFIX;
+        }
+    }
+
+    @Override
+    protected void persistTask(Task task) {
+        dirtyIds.add(task.getId());
+        requestSave();
+    }
+
+    @Override
+    protected void persistDelete(int id) {
+        dirtyIds.add(id);
+        requestSave();
+    }
+
+    // Удаляемые ключи определяются по сохраненным задачам типа
+    @Override
+    protected void persistClear(TaskTypes type) {
+        String prefix = (type == null) ? "" : keyPrefixOf(type);
+        for (Map.Entry<Integer, String> entry : storedKeys.entrySet()) {
+            if (entry.getValue().startsWith(prefix)) {
+                dirtyIds.add(entry.getKey());
+            }
+        }
+        requestSave();
+    }
+
+    // Обращение к задаче сохраняется одним ключом истории
+    @Override
+    protected void persistHistory(Task task) {
+        dirtyHistory.remove(task.getId()); //Порядок записей соответствует порядку обращений
+        dirtyHistory.put(task.getId(), ++historySequence);
+        requestSave();
+    }
+
+    public void load() {
+        beginBulkLoad();
+        try {
+            loadEntities();
+        } finally {
+            endBulkLoad();
+        }
+    }
+
+    private void loadEntities() {
+        loadTasks(TASK_KEY_PREFIX, Task.class, this::importTask);
+        loadTasks(EPIC_KEY_PREFIX, Epic.class, this::importEpic);
+        loadTasks(SUBTASK_KEY_PREFIX, Subtask.class, subtask -> {
+            importSubtask(subtask);
+            storedEpicIds.put(subtask.getId(), subtask.getEpicId());
+            storedSubtaskIds.computeIfAbsent(subtask.getEpicId(), k -> new HashSet<>()).add(subtask.getId());
+        });
+
+        //История упорядочивается по номерам обращений
+        List<long[]> history = new ArrayList<>();
+        for (Map.Entry<String, String> entry : kvTaskClient.loadAll(HISTORY_KEY_PREFIX).entrySet()) {
+            int id = Integer.parseInt(entry.getKey().substring(HISTORY_KEY_PREFIX.length()));
+            history.add(new long[]{Long.parseLong(entry.getValue()), id});
+        }
+        history.sort((a, b) -> Long.compare(a[0], b[0]));
         getHistoryManager().clear();
-        List<Task> history = gson.fromJson(kvTaskClient.load("history"),
-                new TypeToken<List<Task>>() {
-                }.getType());
-        if (history != null) {
-            for (Task task : history) {
+        for (long[] entry : history) {
+            Task task = findAnonimusly((int) entry[1]);
+            if (task != null) {
                 getHistoryManager().add(task);
             }
+            storedHistoryIds.add((int) entry[1]);
+            historySequence = Math.max(historySequence, entry[0]);
+        }
+    }
+
+    private <T extends Task> void loadTasks(String prefix, Class<T> taskClass, Consumer<T> importer) {
+        for (Map.Entry<String, String> entry : kvTaskClient.loadAll(prefix).entrySet()) {
+            T task = GSON.fromJson(entry.getValue(), taskClass);
+            if (task != null) {
+                importer.accept(task);
+                storedKeys.put(task.getId(), entry.getKey());
+            }
         }
     }
 
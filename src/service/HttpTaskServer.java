@@ -7,6 +7,7 @@ import com.sun.net.httpserver.HttpServer;
 import model.Epic;
 import model.Subtask;
 import model.Task;
+import model.TimeSlot;
 import service.adapters.DurationAdapter;
 import service.adapters.LocalDateTimeAdapter;
 
@@ -25,6 +26,9 @@ public class HttpTaskServer {
 
     private final int PORT = 8080;
     private static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
+    //Отложенное сохранение: изменения, поступившие за WRITE_BEHIND_DELAY, сохраняются одной записью
+    private static final Duration WRITE_BEHIND_DELAY = Duration.ofMillis(200);
+    private static final int WRITE_BEHIND_MAX_PENDING_OPS = 500;
 
     private final TaskManager taskManager = Managers.getDefault();
     private final HttpServer httpServer = HttpServer.create();
@@ -34,6 +38,11 @@ public class HttpTaskServer {
     }
 
     public HttpTaskServer() throws IOException {
+        if (taskManager instanceof FileBackedTasksManager) {
+            //Ответ на запрос не ждет сохранения данных
+            ((FileBackedTasksManager) taskManager).enableWriteBehind(WRITE_BEHIND_DELAY,
+                    WRITE_BEHIND_MAX_PENDING_OPS);
+        }
         HttpServer httpServer = HttpServer.create();
         InetSocketAddress socket = new InetSocketAddress(PORT);
 
@@ -44,6 +53,7 @@ public class HttpTaskServer {
         httpServer.createContext("/tasks/epic/", this::handleEpic);
         httpServer.createContext("/tasks/subtask/", this::handleSubtask);
         httpServer.createContext("/tasks/subtask/epic/", this::handleEpicSubtasks);
+        httpServer.createContext("/tasks/slots", this::handleFreeSlots);
         httpServer.createContext("/tasks/", this::handlePrioritizedTasks);
 
         httpServer.start();
@@ -409,17 +419,75 @@ public class HttpTaskServer {
         }
     }
 
+    // Задачи в порядке приоритета. Необязательные параметры:
+    // from, to - период времени начала задач [from, to) в формате ISO (например, 2023-03-06T18:20);
+    // offset, limit - номер первой задачи и количество задач в ответе (постраничная выдача)
     private void handlePrioritizedTasks(HttpExchange httpExchange) throws IOException {
         if (httpExchange.getRequestMethod().equals("GET")) {
             Gson gson = createGson();
-            simpleResponse(httpExchange, 200,
-                    gson.toJson(this.taskManager.getPrioritizedTasks()));
+
+            Map<String, String> params = queryToMap(httpExchange.getRequestURI().getQuery());
+            LocalDateTime from;
+            LocalDateTime to;
+            Integer offset;
+            Integer limit;
+            try {
+                from = params.containsKey("from") ? LocalDateTime.parse(params.get("from")) : null;
+                to = params.containsKey("to") ? LocalDateTime.parse(params.get("to")) : null;
+                offset = params.containsKey("offset") ? Integer.parseInt(params.get("offset")) : null;
+                limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : null;
+            } catch (RuntimeException e) {
+                msg(1, "handlePrioritizedTasks", "Переданы ошибочные параметры. Message: " + e.getMessage());
+                simpleResponse(httpExchange, 400, "Переданы ошибочные параметры выборки");
+                return;
+            }
+            if (((offset != null) && (offset < 0)) || ((limit != null) && (limit < 0))) {
+                msg(1, "handlePrioritizedTasks", "Параметры offset и limit не могут быть отрицательными");
+                simpleResponse(httpExchange, 400, "Переданы ошибочные параметры выборки");
+                return;
+            }
+
+            List<Task> prioritizedTasks;
+            if ((offset != null) || (limit != null)) {
+                prioritizedTasks = taskManager.getPrioritizedTasks(from, to,
+                        (offset == null) ? 0 : offset, (limit == null) ? Integer.MAX_VALUE : limit);
+            } else {
+                prioritizedTasks = taskManager.getPrioritizedTasks(from, to);
+            }
+            simpleResponse(httpExchange, 200, gson.toJson(prioritizedTasks));
         } else {
             msg(1, "handleAllTasks", "Использован неверный метод для вызова");
         }
 
     }
 
+    // Свободное время для размещения задачи. Параметры:
+    // duration - продолжительность задачи в формате ISO (например, PT1H30M);
+    // from, to - период поиска [from, to) в формате ISO (например, 2023-03-06T18:20);
+    // count - необязательное количество периодов в ответе (по умолчанию 1)
+    private void handleFreeSlots(HttpExchange httpExchange) throws IOException {
+        if (httpExchange.getRequestMethod().equals("GET")) {
+            Gson gson = createGson();
+
+            Map<String, String> params = queryToMap(httpExchange.getRequestURI().getQuery());
+            List<TimeSlot> slots;
+            try {
+                Duration duration = Duration.parse(params.get("duration"));
+                LocalDateTime from = LocalDateTime.parse(params.get("from"));
+                LocalDateTime to = LocalDateTime.parse(params.get("to"));
+                int count = params.containsKey("count") ? Integer.parseInt(params.get("count")) : 1;
+                slots = taskManager.findFreeSlots(duration, from, to, count);
+            } catch (RuntimeException e) {
+                msg(1, "handleFreeSlots", "Переданы ошибочные параметры. Message: " + e.getMessage());
+                simpleResponse(httpExchange, 400, "Переданы ошибочные параметры поиска свободного времени");
+                return;
+            }
+            simpleResponse(httpExchange, 200, gson.toJson(slots));
+        } else {
+            msg(1, "handleFreeSlots", "Использован неверный метод для вызова");
+        }
+    }
+
     private void handleHistory(HttpExchange httpExchange) throws IOException {
         if (httpExchange.getRequestMethod().equals("GET")) {
             Gson gson = createGson();
@@ -432,6 +500,9 @@ public class HttpTaskServer {
 
     public void stop() {
         httpServer.stop(1);
+        if (taskManager instanceof FileBackedTasksManager) {
+            ((FileBackedTasksManager) taskManager).flush();
+        }
         msg(0, "stop", " остановлен!");
     }
 
@@ -0,0 +1,170 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+//==========================================================================================================
+// Хранилище объектов по целочисленному идентификатору без упаковки ключей (Integer).
+// Идентификаторы задач выдаются последовательно, поэтому хранилище устроено как разреженный массив,
+// разбитый на страницы по PAGE_SIZE элементов: страница создается при первой записи и освобождается,
+// когда в ней не остается объектов. Обход выполняется в порядке возрастания идентификаторов.
+// Значение null в хранилище не допускается (означает отсутствие объекта).
+//-----------------------------------------------------------------------------------------------------------
+
+class IdStore<T> implements Iterable<T> {
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT; //Количество элементов на странице
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private Object[][] pages = new Object[1][]; //Страницы с объектами
+    private int[] pageCounts = new int[1]; //Количество объектов на каждой странице
+    private int size = 0;
+    private int modCount = 0; //Счетчик изменений для обнаружения модификации во время обхода
+
+    @SuppressWarnings("unchecked")
+    T get(int id) {
+        if (id < 0) {
+            return null;
+        }
+        int page = id >>> PAGE_SHIFT;
+        if (page >= pages.length) {
+            return null;
+        }
+        Object[] values = pages[page];
+        return (values == null) ? null : (T) values[id & PAGE_MASK];
+    }
+
+    boolean containsKey(int id) {
+        return get(id) != null;
+    }
+
+    // Запись объекта. Возвращает ранее хранившийся под этим идентификатором объект или null
+    @SuppressWarnings("unchecked")
+    T put(int id, T value) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Недопустимый идентификатор: " + id);
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Хранение null не допускается, используйте remove()");
+        }
+        int page = id >>> PAGE_SHIFT;
+        ensurePage(page);
+        Object[] values = pages[page];
+        T previous = (T) values[id & PAGE_MASK];
+        values[id & PAGE_MASK] = value;
+        if (previous == null) {
+            pageCounts[page]++;
+            size++;
+            modCount++;
+        }
+        return previous;
+    }
+
+    // Удаление объекта. Возвращает удаленный объект или null, если объекта не было
+    @SuppressWarnings("unchecked")
+    T remove(int id) {
+        if (id < 0) {
+            return null;
+        }
+        int page = id >>> PAGE_SHIFT;
+        if ((page >= pages.length) || (pages[page] == null)) {
+            return null;
+        }
+        Object[] values = pages[page];
+        T previous = (T) values[id & PAGE_MASK];
+        if (previous != null) {
+            values[id & PAGE_MASK] = null;
+            if (--pageCounts[page] == 0) {
+                pages[page] = null; //освобождаем опустевшую страницу
+            }
+            size--;
+            modCount++;
+        }
+        return previous;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        pages = new Object[1][];
+        pageCounts = new int[1];
+        size = 0;
+        modCount++;
+    }
+
+    // Список объектов в порядке возрастания идентификаторов
+    ArrayList<T> values() {
+        ArrayList<T> result = new ArrayList<>(size);
+        for (T value : this) {
+            result.add(value);
+        }
+        return result;
+    }
+
+    private void ensurePage(int page) {
+        if (page >= pages.length) {
+            //Увеличиваем перечень страниц как минимум вдвое
+            int length = Math.max(page + 1, pages.length * 2);
+            Object[][] newPages = new Object[length][];
+            System.arraycopy(pages, 0, newPages, 0, pages.length);
+            int[] newPageCounts = new int[length];
+            System.arraycopy(pageCounts, 0, newPageCounts, 0, pageCounts.length);
+            pages = newPages;
+            pageCounts = newPageCounts;
+        }
+        if (pages[page] == null) {
+            pages[page] = new Object[PAGE_SIZE];
+        }
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<>() {
+            private final int expectedModCount = modCount;
+            private int nextId = advance(0);
+
+            // Поиск ближайшего занятого идентификатора начиная с заданного
+            private int advance(int id) {
+                while ((id >>> PAGE_SHIFT) < pages.length) {
+                    Object[] values = pages[id >>> PAGE_SHIFT];
+                    if (values == null) {
+                        //пропускаем отсутствующую страницу целиком
+                        id = ((id >>> PAGE_SHIFT) + 1) << PAGE_SHIFT;
+                        continue;
+                    }
+                    if (values[id & PAGE_MASK] != null) {
+                        return id;
+                    }
+                    id++;
+                }
+                return -1;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return nextId >= 0;
+            }
+
+            @Override
+            public T next() {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (nextId < 0) {
+                    throw new NoSuchElementException();
+                }
+                T result = get(nextId);
+                nextId = advance(nextId + 1);
+                return result;
+            }
+        };
+    }
+}
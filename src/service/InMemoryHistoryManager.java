@@ -2,13 +2,11 @@ package service;
 
 import model.Task;
 
-import java.util.Map;
-import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
 
 public class InMemoryHistoryManager implements HistoryManager {
-    private final Map<Integer, Node> nodes = new HashMap<>();
+    private final IdStore<Node> nodes = new IdStore<>(); //узлы истории по идентификатору задачи
     private Node head;
     private Node tail;
 
@@ -25,7 +23,7 @@ public class InMemoryHistoryManager implements HistoryManager {
     }
 
     @Override
-    public void remove(Integer id) {
+    public void remove(int id) {
         if (isEmpty()) {
             // Удаление возможно лишь в непустой истории
             return;
@@ -1,36 +1,24 @@
 package service;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.*;
 
 import model.*;
 
 public class InMemoryTaskManager implements TaskManager {
-    private final HashMap<Integer, Task> tasks;
-    private final HashMap<Integer, Epic> epics;
-    private final HashMap<Integer, Subtask> subtasks;
+    private final IdStore<Task> tasks;
+    private final IdStore<Epic> epics;
+    private final IdStore<Subtask> subtasks;
+    private final IdStore<EpicAggregate> epicAggregates; //Агрегированные сведения о подзадачах эпиков
+    private final IdStore<IndexEntry> index; //Общий индекс задач/эпиков/подзадач по идентификатору
     HistoryManager historyManager;
     private int newId = 1; //Очередной идентификатор задачи
     private final List<TaskValidator> validators; //Хранилище валидаторов задач
 
-    TreeSet<Task> prioritizedTasks = new TreeSet<>((aTask, bTask) -> {
-        if ((aTask.getStartTime() == null) && (bTask.getStartTime() == null)) {
-            //Если у задач не определено время, сравниваем по id, чтобы не потерялись...
-            return aTask.getId() - bTask.getId();
-        }
-        //Обрабатываем случаи, когда время одной из задач не определено
-        if (aTask.getStartTime() == null) {
-            return 1;
-        }
-        if (bTask.getStartTime() == null) {
-            return -1;
-        }
-        //При одинаковом времени сортируем по id, чтобы не потерялись задачи
-        if (aTask.getStartTime().equals(bTask.getStartTime())) {
-            return aTask.getId() - bTask.getId();
-        }
-        //Во всех прочих случаях сравниваем по времени
-        return (aTask.getStartTime().isBefore(bTask.getStartTime()) ? -1 : 1);
-    });
+    //Индекс задач и подзадач в порядке приоритета (по времени начала)
+    private final PrioritizedTasksIndex prioritizedTasks = new PrioritizedTasksIndex();
+    private List<Task> bulkLoaded; //Задачи, импортированные в режиме пакетной загрузки (null - режим выключен)
 
     public void appendValidator(TaskValidator validator) {
         validators.add(validator);
@@ -66,11 +54,18 @@ public class InMemoryTaskManager implements TaskManager {
     }
 
     public InMemoryTaskManager() {
-        tasks = new HashMap<>();
-        epics = new HashMap<>();
-        subtasks = new HashMap<>();
+        this(new TimeIntersectionsValidator());
+    }
+
+    // Менеджер с заданным валидатором пересечений во времени (например, IntervalTimeValidator)
+    public InMemoryTaskManager(TaskValidator timeValidator) {
+        tasks = new IdStore<>();
+        epics = new IdStore<>();
+        subtasks = new IdStore<>();
+        epicAggregates = new IdStore<>();
+        index = new IdStore<>();
         validators = new ArrayList<>();
-        appendValidator(new TimeIntersectionsValidator());
+        appendValidator(timeValidator);
         historyManager = Managers.getDefaultHistory();
     }
 
@@ -93,6 +88,7 @@ public class InMemoryTaskManager implements TaskManager {
         task.setID(generateID());     //генерируем идентификатор (почему до валидации?)
 
         tasks.put(task.getId(), task); //добавляем задачу в хранилище
+        index.put(task.getId(), new IndexEntry(task, TaskTypes.TASK));
         prioritizedTasks.add(task);
         onAddTask(task);
 
@@ -111,8 +107,13 @@ public class InMemoryTaskManager implements TaskManager {
             return null;
         }
         tasks.put(task.getId(), task);
-        prioritizedTasks.add(task);
+        index.put(task.getId(), new IndexEntry(task, TaskTypes.TASK));
         updateNewIdOnImport(task);
+        if (bulkLoaded != null) {
+            bulkLoaded.add(task);
+            return task;
+        }
+        prioritizedTasks.add(task);
         onAddTask(task);
         return task;
     }
@@ -137,6 +138,8 @@ public class InMemoryTaskManager implements TaskManager {
 
         epic.clearSubtaskIds(); //очищаем, т.к. подзадачи должны добавляться после добавления эпика в менеджер
         epics.put(epic.getId(), epic);
+        index.put(epic.getId(), new IndexEntry(epic, TaskTypes.EPIC));
+        epicAggregates.put(epic.getId(), new EpicAggregate());
         onAddTask(epic);
 
         return epic;
@@ -147,8 +150,22 @@ public class InMemoryTaskManager implements TaskManager {
         if (epic.getId() < 1) {
             return null;
         }
+        EpicAggregate aggregate = epicAggregates.get(epic.getId());
         epics.put(epic.getId(), epic);
+        index.put(epic.getId(), new IndexEntry(epic, TaskTypes.EPIC));
+        if (aggregate == null) {
+            epicAggregates.put(epic.getId(), new EpicAggregate());
+        }
         updateNewIdOnImport(epic);
+        if (bulkLoaded != null) {
+            bulkLoaded.add(epic);
+            return epic;
+        }
+        if (aggregate != null) {
+            //Эпик заменен: сведения о подзадачах сохраняются в агрегате
+            epic.setSubtaskIds(aggregate.getSubtaskIds());
+            aggregate.applyTo(epic);
+        }
         onAddTask(epic);
         return epic;
     }
@@ -170,8 +187,9 @@ public class InMemoryTaskManager implements TaskManager {
             return null;
         }
         subtasks.put(subtask.getId(), subtask);
+        index.put(subtask.getId(), new IndexEntry(subtask, TaskTypes.SUBTASK));
         prioritizedTasks.add(subtask);
-        updateEpicFromSubtasksInfo(epics.get(subtask.getEpicId())); //обновление эпика, связанное с добавлением подзадачи
+        attachSubtaskToEpic(subtask); //обновление эпика, связанное с добавлением подзадачи
         onAddTask(subtask);
 
         return subtask;
@@ -183,10 +201,19 @@ public class InMemoryTaskManager implements TaskManager {
             return null;
         }
 
-        subtasks.put(subtask.getId(), subtask);
-        prioritizedTasks.add(subtask);
+        Subtask previous = subtasks.put(subtask.getId(), subtask);
+        index.put(subtask.getId(), new IndexEntry(subtask, TaskTypes.SUBTASK));
         updateNewIdOnImport(subtask);
-        updateEpicFromSubtasksInfo(epics.get(subtask.getEpicId()));
+        if (bulkLoaded != null) {
+            bulkLoaded.add(subtask);
+            return subtask;
+        }
+        if ((previous != null) && (previous.getEpicId() != subtask.getEpicId())) {
+            //подзадача перенесена в другой эпик
+            detachSubtaskFromEpic(previous.getEpicId(), previous.getId());
+        }
+        prioritizedTasks.add(subtask);
+        attachSubtaskToEpic(subtask);
         onAddTask(subtask);
 
         return subtask;
@@ -208,8 +235,8 @@ public class InMemoryTaskManager implements TaskManager {
 
         //замена таска в хранилище на обновленный
         if (tasks.containsKey(task.getId())) {
-            prioritizedTasks.remove(tasks.get(task.getId()));
-            tasks.replace(task.getId(), task);
+            tasks.put(task.getId(), task);
+            index.put(task.getId(), new IndexEntry(task, TaskTypes.TASK));
             prioritizedTasks.add(task);
             onUpdateTask(task);
             return task;
@@ -233,8 +260,12 @@ public class InMemoryTaskManager implements TaskManager {
 
         //заменить эпик в наборе на обновленный вариант
         if (epics.containsKey(epic.getId())) {
-            epics.replace(epic.getId(), epic);
-            updateEpicFromSubtasksInfo(epic);
+            epics.put(epic.getId(), epic);
+            index.put(epic.getId(), new IndexEntry(epic, TaskTypes.EPIC));
+            //Обновленный экземпляр эпика получает сведения о подзадачах из агрегата
+            EpicAggregate aggregate = epicAggregates.get(epic.getId());
+            epic.setSubtaskIds(aggregate.getSubtaskIds());
+            aggregate.applyTo(epic);
             onUpdateTask(epic);
             return epic;
         }
@@ -256,10 +287,15 @@ public class InMemoryTaskManager implements TaskManager {
         }
 
         if (subtasks.containsKey(subtask.getId())) {
-            prioritizedTasks.remove(subtasks.get(subtask.getId()));
-            subtasks.replace(subtask.getId(), subtask);
+            Subtask previous = subtasks.get(subtask.getId());
+            if (previous.getEpicId() != subtask.getEpicId()) {
+                //подзадача перенесена в другой эпик
+                detachSubtaskFromEpic(previous.getEpicId(), previous.getId());
+            }
+            subtasks.put(subtask.getId(), subtask);
+            index.put(subtask.getId(), new IndexEntry(subtask, TaskTypes.SUBTASK));
             prioritizedTasks.add(subtask);
-            updateEpicFromSubtasksInfo(epics.get(subtask.getEpicId())); //обновление эпика, связанное с обновлением подзадачи
+            attachSubtaskToEpic(subtask); //обновление эпика, связанное с обновлением подзадачи
             onUpdateTask(subtask);
             return subtask;
         }
@@ -269,73 +305,115 @@ public class InMemoryTaskManager implements TaskManager {
     // Удаление задачи/эпика/подзадачи по идентификатору
     @Override
     public boolean delete(Integer id) {
-        return deleteTask(id) || deleteSubtask(id) || deleteEpic(id);
+        //Тип объекта определяется по общему индексу, без поочередного обращения к хранилищам
+        IndexEntry entry = (id == null) ? null : index.get(id);
+        if (entry == null) {
+            return false;
+        }
+
+        switch (entry.type) {
+            case TASK:
+                removeTask(entry.task);
+                break;
+            case SUBTASK:
+                removeSubtask((Subtask) entry.task);
+                detachSubtaskFromEpic(((Subtask) entry.task).getEpicId(), id);
+                break;
+            case EPIC:
+                removeEpic((Epic) entry.task);
+                break;
+        }
+        return true;
     }
 
     // Удаление задачи по идентификатору
     @Override
     public boolean deleteTask(Integer id) {
         //Проверяем, что идентификатор указывает на реальный объект
-        Task task = tasks.get(id);
-        if ((task == null) || (!tasks.containsKey(id))) {
+        Task task = (id == null) ? null : tasks.get(id);
+        if (task == null) {
             return false;
         }
 
-        prioritizedTasks.remove(tasks.get(id));
-        tasks.remove(id);
-        historyManager.remove(id); //удаляем задачу из истории
-        onRemoveTask(task);
+        removeTask(task);
 
         return true;
     }
 
+    // Служебный метод. Удаление задачи из хранилищ менеджера
+    private void removeTask(Task task) {
+        prioritizedTasks.remove(task.getId());
+        tasks.remove(task.getId());
+        index.remove(task.getId());
+        historyManager.remove(task.getId()); //удаляем задачу из истории
+        onRemoveTask(task);
+    }
+
     // Удаление подзадачи по идентификатору
     @Override
     public boolean deleteSubtask(Integer id) {
         //Проверяем, что идентификатор указывает на реальный объект
-        Subtask subtask = subtasks.get(id);
-        if ((subtask == null) || (!subtasks.containsKey(id))) {
+        Subtask subtask = (id == null) ? null : subtasks.get(id);
+        if (subtask == null) {
             return false;
         }
 
-        prioritizedTasks.remove(subtasks.get(id));
-        subtasks.remove(id);
-        historyManager.remove(id); //удаляем подзадачу из истории
-        onRemoveTask(subtask);
+        removeSubtask(subtask);
 
         //Удаляем идентификатор подзадачи из списка подзадач эпика
-        updateEpicFromSubtasksInfo(epics.get(subtask.getEpicId()));
+        detachSubtaskFromEpic(subtask.getEpicId(), subtask.getId());
 
         return true;
     }
 
+    // Служебный метод. Удаление подзадачи из хранилищ менеджера (без обновления эпика)
+    private void removeSubtask(Subtask subtask) {
+        prioritizedTasks.remove(subtask.getId());
+        subtasks.remove(subtask.getId());
+        index.remove(subtask.getId());
+        historyManager.remove(subtask.getId()); //удаляем подзадачу из истории
+        onRemoveTask(subtask);
+    }
+
     // Удаление эпика по идентификатору
     @Override
     public boolean deleteEpic(Integer id) {
         //Проверяем, что идентификатор указывает на реальный объект
-        Epic epic = epics.get(id);
-        if ((epic == null) || (!epics.containsKey(id))) {
+        Epic epic = (id == null) ? null : epics.get(id);
+        if (epic == null) {
             return false;
         }
 
-        epics.remove(id);
+        removeEpic(epic);
+
+        return true;
+    }
+
+    // Служебный метод. Удаление эпика вместе с подзадачами из хранилищ менеджера
+    private void removeEpic(Epic epic) {
+        epics.remove(epic.getId());
+        index.remove(epic.getId());
 
-        //Удаляем подзадачи
-        for (Integer subtaskId : epic.getSubtaskIds()) {
-            deleteSubtask(subtaskId);
+        //Удаляем подзадачи по индексу подзадач эпика, пересчет удаляемого эпика не требуется
+        EpicAggregate aggregate = epicAggregates.remove(epic.getId());
+        for (Subtask subtask : aggregate.getSubtasks()) {
+            removeSubtask(subtask);
         }
 
         onRemoveTask(epic);
 
-        historyManager.remove(id); //удаляем эпик из истории
-
-        return true;
+        historyManager.remove(epic.getId()); //удаляем эпик из истории
     }
 
     // Удаление всех задач, эпиков, подзадач
     @Override
     public void clearTasks() {
-        onRemoveTasks(new ArrayList<>(tasks.values()));
+        ArrayList<Task> removedTasks = tasks.values();
+        onRemoveTasks(removedTasks);
+        for (Task task : removedTasks) {
+            index.remove(task.getId());
+            prioritizedTasks.remove(task.getId());
+        }
         tasks.clear();
     }
 
@@ -343,15 +421,33 @@ public class InMemoryTaskManager implements TaskManager {
     @Override
     public void clearEpics() {
         clearSubtasks(); //удаляем подзадачи, т.к. они не могут существовать без эпиков
-        onRemoveTasks(new ArrayList<>(epics.values()));
+        ArrayList<Task> removedEpics = new ArrayList<>(epics.values());
+        onRemoveTasks(removedEpics);
+        for (Task epic : removedEpics) {
+            index.remove(epic.getId());
+        }
         epics.clear();
+        epicAggregates.clear();
     }
 
     // Удаление всех подзадач
     @Override
     public void clearSubtasks() {
-        onRemoveTasks(new ArrayList<>(subtasks.values()));
+        ArrayList<Task> removedSubtasks = new ArrayList<>(subtasks.values());
+        onRemoveTasks(removedSubtasks);
+        for (Task subtask : removedSubtasks) {
+            index.remove(subtask.getId());
+            prioritizedTasks.remove(subtask.getId());
+        }
         subtasks.clear();
+
+        //Эпики остаются без подзадач
+        for (Epic epic : epics) {
+            EpicAggregate aggregate = epicAggregates.get(epic.getId());
+            aggregate.clear();
+            epic.clearSubtaskIds();
+            aggregate.applyTo(epic);
+        }
     }
 
     // Удаление всех задач, эпиков, подзадач
@@ -366,7 +462,7 @@ public class InMemoryTaskManager implements TaskManager {
     // Получить задачу (Task) из хранилища по идентификатору
     @Override
     public Task getTask(Integer id) {
-        Task result = tasks.get(id);
+        Task result = (id == null) ? null : tasks.get(id);
         historyManager.add(result);
         return result;
     }
@@ -374,14 +470,14 @@ public class InMemoryTaskManager implements TaskManager {
     // Получить эпик (Epic) из хранилища по идентификатору
     @Override
     public Epic getEpic(Integer id) {
-        Epic result = epics.get(id);
+        Epic result = (id == null) ? null : epics.get(id);
         historyManager.add(result);
         return result;
     }
 
     //Служебный метод получения эпика (Epic) из хранилища по идентификатору без внесения в историю
     protected Epic getEpicAnonimusly(Integer id) {
-        Epic result = epics.get(id);
+        Epic result = (id == null) ? null : epics.get(id);
         return result;
     }
 
@@ -393,31 +489,64 @@ public class InMemoryTaskManager implements TaskManager {
     // Получить подзадачу (Subtask) из хранилища по идентификатору
     @Override
     public Subtask getSubtask(Integer id) {
-        Subtask result = subtasks.get(id);
+        Subtask result = (id == null) ? null : subtasks.get(id);
         historyManager.add(result);
         return result;
     }
 
     public Task getById(Integer id) {
-        return (getTask(id) == null ? (getEpic(id) == null ? getSubtask(id) : getEpic(id)) : getTask(id));
+        return (id == null) ? null : find(id);
+    }
+
+    // Получить задачу/эпик/подзадачу по идентификатору за одно обращение к общему индексу
+    @Override
+    public Task find(int id) {
+        Task result = findAnonimusly(id);
+        historyManager.add(result);
+        return result;
+    }
+
+    // Задачи/эпики/подзадачи в порядке идентификаторов без копирования в новый список (без истории)
+    protected Iterable<Task> getTasksAnonimusly() {
+        return tasks;
+    }
+
+    protected Iterable<Epic> getEpicsAnonimusly() {
+        return epics;
+    }
+
+    protected Iterable<Subtask> getSubtasksAnonimusly() {
+        return subtasks;
+    }
+
+    //Служебный метод получения задачи/эпика/подзадачи по идентификатору без внесения в историю
+    protected Task findAnonimusly(int id) {
+        IndexEntry entry = index.get(id);
+        return (entry == null) ? null : entry.task;
+    }
+
+    //Служебный метод определения типа задачи по идентификатору (null, если задача отсутствует)
+    protected TaskTypes getTypeOf(int id) {
+        IndexEntry entry = index.get(id);
+        return (entry == null) ? null : entry.type;
     }
 
     // Получить список задач
     @Override
     public ArrayList<Task> getTasks() {
-        return new ArrayList<>(tasks.values());
+        return tasks.values();
     }
 
     // Получить список эпиков
     @Override
     public ArrayList<Epic> getEpics() {
-        return new ArrayList<>(epics.values());
+        return epics.values();
     }
 
     // Получить список подзадач
     @Override
     public ArrayList<Subtask> getSubtasks() {
-        return new ArrayList<>(subtasks.values());
+        return subtasks.values();
     }
 
     @Override
@@ -425,15 +554,13 @@ public class InMemoryTaskManager implements TaskManager {
         if (epic == null) {
             return null;
         }
-        ArrayList<Subtask> result = new ArrayList<>();
-        List<Integer> subtaskIds = epic.getSubtaskIds();
-        for (Integer id : subtaskIds) {
-            Subtask subtask = subtasks.get(id);
-            if (subtask != null) {
-                result.add(subtask);
-            }
+        //Подзадачи берутся из индекса подзадач эпика
+        EpicAggregate aggregate = epicAggregates.get(epic.getId());
+        if (aggregate == null) {
+            //эпик отсутствует в менеджере
+            return new ArrayList<>();
         }
-        return result;
+        return aggregate.getSubtasks();
     }
 
     // Получить историю обращений к задачам/эпикам/подзадачам
@@ -446,110 +573,125 @@ public class InMemoryTaskManager implements TaskManager {
         return historyManager;
     }
 
-    // Служебный метод. Получить сабтаски по списку идентификаторов
-    // Результаты вызова метода не заносятся в историю просмотров задач
-    private ArrayList<Subtask> getSubtasks(ArrayList<Integer> ids) {
-        ArrayList<Subtask> result = new ArrayList<>();
-        for (Integer id : subtasks.keySet()) {
-            if (ids.contains(id)) {
-                result.add(subtasks.get(id));
-            }
-        }
-        return result;
-    }
-
     // Служебный метод. Генерация идентификатора задачи и наследников
     private int generateID() {
         return newId++;
     }
 
+    // Задачи и подзадачи в порядке приоритета (копия индекса)
     @Override
     public List<Task> getPrioritizedTasks() {
-        return new ArrayList<>(prioritizedTasks);
+        return prioritizedTasks.view().toList();
     }
 
-    private boolean removeTaskByIdFromPrioritizedTasks(int taskId) {
-        Task target = null;
-        for (Task prioritizedTask : prioritizedTasks) {
-            if (prioritizedTask.getId() == taskId) {
-                target = prioritizedTask;
+    // Задачи и подзадачи, время начала которых лежит в полуинтервале [from, to) (копия). Обход индекса
+    // начинается с первой задачи периода и заканчивается на первой задаче после него
+    @Override
+    public List<Task> getPrioritizedTasks(LocalDateTime from, LocalDateTime to) {
+        return prioritizedTasks.view(from, to).toList();
+    }
+
+    // Страница выборки задач и подзадач за период (копия, размер которой не превышает limit)
+    @Override
+    public List<Task> getPrioritizedTasks(LocalDateTime from, LocalDateTime to, int offset, int limit) {
+        return prioritizedTasks.view(from, to).page(offset, limit);
+    }
+
+    // Поиск свободного времени выполняется валидатором пересечений во времени, ведущим сведения о занятости.
+    // Если такого валидатора нет, свободное время определяется по индексу приоритетов
+    @Override
+    public List<TimeSlot> findFreeSlots(Duration duration, LocalDateTime from, LocalDateTime to, int count) {
+        for (TaskValidator validator : validators) {
+            if (validator instanceof FreeSlotsFinder) {
+                return ((FreeSlotsFinder) validator).findFreeSlots(duration, from, to, count);
             }
         }
-        if (target != null) {
-            prioritizedTasks.remove(target);
-            return true;
-        } else {
-            return false;
+        return prioritizedTasks.findFreeSlots(duration, from, to, count);
+    }
+
+    //==========================================================================================================
+    // Пакетная загрузка. Между beginBulkLoad() и endBulkLoad() импорт (importTask/importEpic/importSubtask)
+    // только помещает задачи в хранилища. Сведения эпиков, индекс приоритетов и валидаторы обновляются
+    // при завершении загрузки за один проход по всем импортированным задачам. До завершения загрузки
+    // допускается только импорт.
+    //-----------------------------------------------------------------------------------------------------------
+
+    public void beginBulkLoad() {
+        if (bulkLoaded == null) {
+            bulkLoaded = new ArrayList<>();
         }
     }
 
-    private void updateEpicTimes(Epic epic, Subtask subtask) {
-        if (subtask.getStartTime() != null) {
-            if (epic.getStartTime() == null) {
-                epic.setStartTime(subtask.getStartTime());
-            } else {
-                if (subtask.getStartTime().isBefore(epic.getStartTime())) {
-                    epic.setStartTime(subtask.getStartTime());
-                }
-            }
+    public void endBulkLoad() {
+        if (bulkLoaded == null) {
+            return;
         }
-        if (subtask.getEndTime() != null) {
-            if (epic.getEndTime() == null) {
-                epic.setEndTime(subtask.getEndTime());
-            } else {
-                if (subtask.getEndTime().isAfter(epic.getEndTime())) {
-                    epic.setEndTime(subtask.getEndTime());
-                }
+        List<Task> loaded = bulkLoaded;
+        bulkLoaded = null;
+
+        //Учет подзадач в сведениях эпиков (в порядке импорта), затем однократный перенос сведений в эпики
+        IdStore<Epic> changedEpics = new IdStore<>();
+        for (Task task : loaded) {
+            if (task.getClass() != Subtask.class) {
+                continue;
             }
+            Epic epic = epics.get(((Subtask) task).getEpicId());
+            if (epic == null) {
+                continue;
+            }
+            epicAggregates.get(epic.getId()).put((Subtask) task);
+            changedEpics.put(epic.getId(), epic);
+        }
+        for (Epic epic : changedEpics) {
+            EpicAggregate aggregate = epicAggregates.get(epic.getId());
+            epic.setSubtaskIds(aggregate.getSubtaskIds());
+            aggregate.applyTo(epic);
         }
-        if (subtask.getDuration() != null) {
-            if (epic.getDuration() == null) {
-                epic.setDuration(subtask.getDuration());
-            } else {
-                epic.setDuration(epic.getDuration().plus(subtask.getDuration()));
+
+        //Эпики в индекс приоритетов не входят
+        List<Task> prioritized = new ArrayList<>(loaded.size());
+        for (Task task : loaded) {
+            if (task.getClass() != Epic.class) {
+                prioritized.add(task);
             }
         }
+        prioritizedTasks.addAll(prioritized);
 
+        for (TaskValidator validator : validators) {
+            validator.onAddTasks(loaded);
+        }
     }
 
-    private void updateEpicStatus(Epic epic, Subtask subtask, boolean isFirstIteration) {
-        if (isFirstIteration) {
-            //Если это первая итерация, присваиваем и идем дальше
-            epic.setStatus(subtask.getStatus());
-        } else if ((epic.getStatus() != TaskStatus.IN_PROGRESS) &&
-                (epic.getStatus() != subtask.getStatus())) {
-            //Если статус при обходе меняется, значит подзадачи разнородные
-            epic.setStatus(TaskStatus.IN_PROGRESS);
-        }
+    public boolean isBulkLoad() {
+        return bulkLoaded != null;
     }
 
-    // Служебный метод. Обновление эпика, перечня связанных подзадач, статуса
-    private void updateEpicFromSubtasksInfo(Epic epic) {
+    // Служебный метод. Учет добавленной/обновленной подзадачи в сведениях ее эпика
+    private void attachSubtaskToEpic(Subtask subtask) {
+        Epic epic = epics.get(subtask.getEpicId());
         if (epic == null) {
             //работаем только с ненулевыми
             return;
         }
-
-        //Параметры по умолчанию
-        epic.setStatus(TaskStatus.NEW); //По умолчанию статус NEW
-        epic.setStartTime(null);
-        epic.setEndTime(null);
-        epic.setDuration(null);
-        boolean isFirstIteration = true; //Флаг для определения первого шага
-
-        //Пересоставляем перечень подзадач
-        epic.clearSubtaskIds();
-        ArrayList<Subtask> subtasks = getSubtasks();
-        for (Subtask subtask : subtasks) {
-            if (epic.getId().equals(subtask.getEpicId())) {
-                updateEpicTimes(epic, subtask);
-                updateEpicStatus(epic, subtask, isFirstIteration);
-                isFirstIteration = false;
-                epic.addSubtaskIds(subtask.getId());
-            }
+        EpicAggregate aggregate = epicAggregates.get(epic.getId());
+        if (aggregate.put(subtask)) {
+            epic.addSubtaskIds(subtask.getId());
         }
+        aggregate.applyTo(epic);
+    }
 
-        //если при обходе статус во всех подзадачах не отличался от первого, значит он и определяет статус эпика
+    // Служебный метод. Исключение подзадачи из сведений эпика
+    private void detachSubtaskFromEpic(int epicId, int subtaskId) {
+        Epic epic = epics.get(epicId);
+        if (epic == null) {
+            //эпик мог быть удален ранее (например, при удалении эпика вместе с подзадачами)
+            return;
+        }
+        EpicAggregate aggregate = epicAggregates.get(epicId);
+        if (aggregate.remove(subtaskId)) {
+            epic.removeSubtaskIds(subtaskId);
+            aggregate.applyTo(epic);
+        }
     }
 
 
@@ -570,7 +712,7 @@ public class InMemoryTaskManager implements TaskManager {
             result += task.toString() + "\n";
         }
         result += "prioritizedTasks: [" + "\n";
-        for (Task prioritizedTask : this.prioritizedTasks) {
+        for (Task prioritizedTask : prioritizedTasks.view()) {
             result += prioritizedTask.toString() + "\n";
         }
         result += "]" + "\n";
@@ -578,5 +720,15 @@ public class InMemoryTaskManager implements TaskManager {
         result += "-".repeat(20);
         return result;
     }
-}
 
+    // Запись общего индекса: задача и ее тип
+    private static class IndexEntry {
+        final Task task;
+        final TaskTypes type;
+
+        IndexEntry(Task task, TaskTypes type) {
+            this.task = task;
+            this.type = type;
+        }
+    }
+}
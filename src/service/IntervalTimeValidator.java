@@ -0,0 +1,181 @@
+package service;
+
+import model.Epic;
+import model.Task;
+import model.TimeSlot;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+//==========================================================================================================
+// Валидация задачи: недопустимость пересечения с другими задачами во времени (альтернатива
+// TimeIntersectionsValidator с теми же правилами принятия/отклонения задач).
+// Время, занятое задачей, описывается одним интервалом [начало, окончание), границы которого выровнены
+// по чанкам (по умолчанию 5 минут) так же, как это делает TimeIntersectionsValidator:
+// начало округляется вниз, окончание - вверх. Границы хранятся в виде номеров чанков от начала эпохи.
+// Занятые интервалы хранятся в упорядоченном по началу наборе и не пересекаются между собой, поэтому
+// проверка пересечения выполняется за O(log n) без построения перечня чанков.
+//-----------------------------------------------------------------------------------------------------------
+
+public class IntervalTimeValidator implements TaskValidator, FreeSlotsFinder {
+    final private long chunkSeconds; //Продолжительность чанка в секундах
+    final private TreeMap<Long, Interval> intervals = new TreeMap<>(); //Занятые интервалы по началу
+    final private IdStore<Interval> intervalsByTaskId = new IdStore<>(); //Интервалы конкретных задач
+
+    public IntervalTimeValidator() {
+        this(TimeChunks.DEFAULT_CHUNK_DURATION);
+    }
+
+    // Продолжительность чанка должна делить час без остатка (1-6, 10, 12, 15, 30 минут и т.д.)
+    public IntervalTimeValidator(Duration chunkDuration) {
+        this.chunkSeconds = TimeChunks.toChunkSeconds(chunkDuration);
+    }
+
+    // Интервал чанков, занимаемых задачей, или null, если задача не занимает времени
+    private Interval calculateIntervalForTask(Task task) {
+        long start = TimeChunks.firstChunk(task, chunkSeconds);
+        long end = TimeChunks.endChunk(task, chunkSeconds);
+        return (start < end) ? new Interval(start, end, task) : null;
+    }
+
+    private void removeTaskFromValidator(Task task) {
+        if (task.getClass() == Epic.class) {
+            return; //Временные параметры эпика расчитываюься от сабтасков, поэтому его не обрабатываем
+        }
+        Interval interval = intervalsByTaskId.remove(task.getId());
+        if (interval == null) {
+            return;
+        }
+        //Освобождаем занятые задачей участки в пределах ее интервала
+        Map.Entry<Long, Interval> entry = intervals.lowerEntry(interval.end);
+        while ((entry != null) && (entry.getValue().end > interval.start)) {
+            Interval occupied = entry.getValue();
+            if (occupied.task.getId() == task.getId()) {
+                intervals.remove(occupied.start);
+            }
+            entry = intervals.lowerEntry(occupied.start);
+        }
+    }
+
+    private void addTaskToValidator(Task task) {
+        if (task.getClass() == Epic.class) {
+            return; //Временные параметры эпика расчитываюься от сабтасков, поэтому его не обрабатываем
+        }
+        //Удаляем ранее внесенные сведения об интервале задачи (при обновлении могут измениться)
+        removeTaskFromValidator(task);
+
+        if (task.getStartTime() == null) {
+            return; //Если время не задано, нечего добавлять, задача не занимает времени
+        }
+        Interval interval = calculateIntervalForTask(task);
+        if (interval == null) {
+            return;
+        }
+
+        //При импорте задачи без валидации интервал может пересечься с занятыми ранее участками.
+        //Как и при занятии чанков, пересекающиеся участки переходят к добавляемой задаче
+        Map.Entry<Long, Interval> entry = intervals.lowerEntry(interval.end);
+        while ((entry != null) && (entry.getValue().end > interval.start)) {
+            Interval occupied = entry.getValue();
+            intervals.remove(occupied.start);
+            if (occupied.start < interval.start) {
+                intervals.put(occupied.start, new Interval(occupied.start, interval.start, occupied.task));
+            }
+            if (occupied.end > interval.end) {
+                intervals.put(interval.end, new Interval(interval.end, occupied.end, occupied.task));
+            }
+            entry = intervals.lowerEntry(occupied.start);
+        }
+
+        intervals.put(interval.start, interval);
+        intervalsByTaskId.put(task.getId(), interval);
+    }
+
+    @Override
+    public void onAddTask(Task task) {
+        addTaskToValidator(task);
+    }
+
+    @Override
+    public void onRemoveTask(Task task) {
+        removeTaskFromValidator(task);
+    }
+
+    @Override
+    public void onRemoveTasks(List<Task> tasks) {
+        for (Task task : tasks) {
+            removeTaskFromValidator(task);
+        }
+    }
+
+    @Override
+    public void validate(TaskManager manager, Task task) throws TaskValidatorException {
+        if (task.getClass() == Epic.class) {
+            return; //Временные параметры эпика расчитываюься от сабтасков, поэтому его не обрабатываем
+        }
+
+        if (task.getStartTime() == null) {
+            return; //Если время не задано, задача валидна т.к. не имеет пересечений
+        }
+
+        Interval interval = calculateIntervalForTask(task);
+        if (interval == null) {
+            return; //Задача не занимает ни одного чанка
+        }
+
+        //Проверяем участки, начинающиеся до окончания интервала задачи и заканчивающиеся после его начала.
+        //Участки, занятые самой задачей (при обновлении), пересечением не считаются
+        Map.Entry<Long, Interval> entry = intervals.lowerEntry(interval.end);
+        while ((entry != null) && (entry.getValue().end > interval.start)) {
+            Task intersectionTask = entry.getValue().task;
+            if (!TimeChunks.isSameTask(intersectionTask, task)) {
+                throw new TaskValidatorException(task, intersectionTask);
+            }
+            entry = intervals.lowerEntry(entry.getKey());
+        }
+    }
+
+    // Поиск свободного времени по промежуткам между занятыми интервалами периода
+    @Override
+    public List<TimeSlot> findFreeSlots(Duration duration, LocalDateTime from, LocalDateTime to, int count) {
+        TimeChunks.checkFreeSlotsQuery(duration, from, to, count);
+        List<TimeSlot> slots = new ArrayList<>();
+        long end = TimeChunks.ceilChunk(to, chunkSeconds);
+        long freeFirst = TimeChunks.floorChunk(from, chunkSeconds); //Начало текущего свободного участка
+
+        //Начинаем с интервала, который может захватывать начало периода
+        Long firstKey = intervals.floorKey(freeFirst);
+        Map<Long, Interval> candidates = intervals.subMap((firstKey == null) ? freeFirst : firstKey, true,
+                end, false);
+        for (Interval interval : candidates.values()) {
+            if (slots.size() >= count) {
+                break;
+            }
+            if (freeFirst < interval.start) {
+                TimeChunks.addFreeSlot(slots, freeFirst, interval.start, chunkSeconds, duration, from, to);
+            }
+            freeFirst = Math.max(freeFirst, interval.end);
+        }
+        if ((freeFirst < end) && (slots.size() < count)) {
+            TimeChunks.addFreeSlot(slots, freeFirst, end, chunkSeconds, duration, from, to);
+        }
+        return slots;
+    }
+
+    // Участок времени [start, end) в чанках, занятый задачей
+    private static class Interval {
+        final long start;
+        final long end;
+        final Task task;
+
+        Interval(long start, long end, Task task) {
+            this.start = start;
+            this.end = end;
+            this.task = task;
+        }
+    }
+}
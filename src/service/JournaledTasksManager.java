@@ -0,0 +1,265 @@
+package service;
+
+import model.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+//==========================================================================================================
+// Менеджер с журналом изменений. Файл менеджера (в формате FileBackedTasksManager) служит снимком данных,
+// а каждое изменение дописывается отдельной записью в файл журнала "<файл>.journal", поэтому объем записи
+// пропорционален изменению, а не количеству задач. После compactionThreshold записей журнала выполняется
+// сжатие: сохраняется новый снимок, журнал очищается. При загрузке читается снимок, затем применяются
+// записи журнала (без проверки валидаторами: изменения были проверены при записи).
+// Первая строка журнала - отметка снимка, к которому он относится (S,<размер>,<CRC32>, как в журнале
+// истории FileBackedTasksManager). Журнал другого снимка (например, оставшийся после сбоя между заменой
+// снимка и очисткой журнала) при загрузке не применяется.
+// Записи журнала (по одной в строке):
+//   T,<задача в формате CSV> - задача/эпик/подзадача добавлена или обновлена
+//   D,<id>                   - задача/эпик/подзадача удалена
+//   C,<TASK|EPIC|SUBTASK>    - удалены все задачи типа; C,ALL - удалены все задачи и история
+//   V,<id>                   - обращение к задаче внесено в историю
+//-----------------------------------------------------------------------------------------------------------
+
+public class JournaledTasksManager extends FileBackedTasksManager {
+    static final String JOURNAL_SUFFIX = ".journal";
+    static final int DEFAULT_COMPACTION_THRESHOLD = 1000; //Количество записей журнала до сжатия
+    private static final String CLEAR_ALL = "ALL";
+
+    private final File journalFile;
+    private final int compactionThreshold;
+    private int journalRecords = 0; //Количество записей в журнале
+    private boolean replaying = false; //Признак применения записей журнала (изменения не журналируются)
+    private boolean snapshotSaved = false; //Признак наличия снимка, к которому относится журнал
+    private Writer journalWriter;
+
+    public JournaledTasksManager(File file) {
+        this(file, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    public JournaledTasksManager(File file, int compactionThreshold) {
+        super(file);
+        if (compactionThreshold < 1) {
+            throw new IllegalArgumentException("Недопустимый порог сжатия журнала: " + compactionThreshold);
+        }
+        this.journalFile = new File(file.getPath() + JOURNAL_SUFFIX);
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    public static JournaledTasksManager loadFromFile(File file) {
+        return loadFromFile(file, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    public static JournaledTasksManager loadFromFile(File file, int compactionThreshold) {
+        JournaledTasksManager manager = new JournaledTasksManager(file, compactionThreshold);
+        if (!file.exists()) {
+            //Снимка нет, журнал к нему относиться не может. Первое изменение сохранит новый снимок
+            manager.discardJournal();
+            return manager;
+        }
+        manager.loadSnapshot();
+        boolean journalIntact = manager.replayJournal();
+        manager.snapshotSaved = true;
+        if (!journalIntact) {
+            //Неполная запись не должна оставаться в журнале перед новыми записями, сохраняем новый снимок
+            manager.save();
+        }
+        return manager;
+    }
+
+    File getJournalFile() {
+        return journalFile;
+    }
+
+    // Сохранение снимка данных и очистка журнала (сжатие журнала)
+    @Override
+    public synchronized void save() {
+        super.save();
+        discardJournal();
+        snapshotSaved = true;
+    }
+
+    private void discardJournal() {
+        closeJournal();
+        if (journalFile.exists() && !journalFile.delete()) {
+            throw new ManagerSaveException("Не удалось очистить журнал " + journalFile);
+        }
+        journalRecords = 0;
+    }
+
+    @Override
+    protected void persistTask(Task task) {
+        appendRecord("T" + CSV_DELIMITER + FileBackedTasksManager.toString(task));
+    }
+
+    @Override
+    protected void persistDelete(int id) {
+        appendRecord("D" + CSV_DELIMITER + id);
+    }
+
+    @Override
+    protected void persistClear(TaskTypes type) {
+        appendRecord("C" + CSV_DELIMITER + ((type == null) ? CLEAR_ALL : type.name()));
+    }
+
+    @Override
+    protected void persistHistory(Task task) {
+        appendRecord("V" + CSV_DELIMITER + task.getId());
+    }
+
+    private void appendRecord(String record) {
+        if (replaying) {
+            return;
+        }
+        if (!snapshotSaved) {
+            //Новый менеджер: прежние снимок и журнал в файлах к нему не относятся, начинаем с нового снимка
+            save();
+            return;
+        }
+        try {
+            if (journalWriter == null) {
+                boolean newJournal = !journalFile.exists();
+                journalWriter = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(journalFile, true), StandardCharsets.UTF_8));
+                if (newJournal) {
+                    journalWriter.write(getSnapshotStamp());
+                    journalWriter.write(LINE_SEPARATOR);
+                }
+            }
+            journalWriter.write(record);
+            journalWriter.write(LINE_SEPARATOR);
+            journalWriter.flush(); //Запись передается в файл сразу, без накопления в буфере
+        } catch (IOException e) {
+            throw new ManagerSaveException(e.getMessage());
+        }
+        if (++journalRecords >= compactionThreshold) {
+            save();
+        }
+    }
+
+    private void closeJournal() {
+        if (journalWriter == null) {
+            return;
+        }
+        try {
+            journalWriter.close();
+        } catch (IOException e) {
+            throw new ManagerSaveException(e.getMessage());
+        } finally {
+            journalWriter = null;
+        }
+    }
+
+    // Применение записей журнала к загруженному снимку. Возвращает false, если последняя запись журнала
+    // оказалась неполной и была пропущена. Журнал другого снимка удаляется без применения
+    private boolean replayJournal() {
+        if (!journalFile.exists()) {
+            return true;
+        }
+        if (!isJournalOfSnapshot()) {
+            discardJournal();
+            return true;
+        }
+        replaying = true;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+            //Последняя запись без завершающего перевода строки записана не полностью (сбой во время записи)
+            boolean completeTail = endsWithNewLine(journalFile);
+            reader.readLine(); //Отметка снимка
+            String line = reader.readLine();
+            while (line != null) {
+                String next = reader.readLine();
+                if ((next == null) && !completeTail) {
+                    return false;
+                }
+                try {
+                    applyRecord(line);
+                } catch (RuntimeException e) {
+                    throw new ManagerSaveException("Ошибка в записи журнала " + journalFile + ": " + line);
+                }
+                journalRecords++;
+                line = next;
+            }
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            replaying = false;
+        }
+    }
+
+    // Проверка, что журнал относится к загруженному снимку. Журнал другого снимка остается после сбоя между
+    // заменой снимка и очисткой журнала; журнал с неполной отметкой записей не содержит
+    private boolean isJournalOfSnapshot() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+            String stamp = reader.readLine();
+            if ((stamp == null) || !stamp.equals(getSnapshotStamp())) {
+                return false;
+            }
+            return (reader.readLine() != null) || endsWithNewLine(journalFile);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static boolean endsWithNewLine(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            long length = randomAccessFile.length();
+            if (length == 0) {
+                return true;
+            }
+            randomAccessFile.seek(length - 1);
+            return randomAccessFile.read() == '\n';
+        }
+    }
+
+    private void applyRecord(String record) {
+        String value = record.substring(2);
+        switch (record.charAt(0)) {
+            case 'T':
+                applyTask(parseTask(value));
+                break;
+            case 'D':
+                delete(Integer.parseInt(value));
+                break;
+            case 'C':
+                if (CLEAR_ALL.equals(value)) {
+                    clearAll();
+                } else {
+                    switch (TaskTypes.valueOf(value)) {
+                        case TASK:
+                            clearTasks();
+                            break;
+                        case EPIC:
+                            clearEpics();
+                            break;
+                        case SUBTASK:
+                            clearSubtasks();
+                            break;
+                    }
+                }
+                break;
+            case 'V':
+                Task task = findAnonimusly(Integer.parseInt(value));
+                if (task != null) {
+                    historyManager.add(task);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Неизвестная запись журнала: " + record);
+        }
+    }
+
+    // Добавление или обновление задачи из записи журнала. Импорт не проверяет задачу валидаторами и
+    // заменяет задачу с тем же идентификатором
+    private void applyTask(Task task) {
+        if (task instanceof Epic) {
+            importEpic((Epic) task);
+        } else if (task instanceof Subtask) {
+            importSubtask((Subtask) task);
+        } else {
+            importTask(task);
+        }
+    }
+}
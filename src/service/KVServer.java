@@ -2,22 +2,52 @@ package service;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.net.InetSocketAddress;
-import java.util.HashMap;
+import java.lang.reflect.Type;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
 
 /**
  * Постман: https://www.getpostman.com/collections/a83b61d9e1c81c10575c
  */
+//==========================================================================================================
+// Запросы обрабатываются пулом потоков, данные находятся в потокобезопасном хранилище KVStorage. Сервер,
+// созданный с каталогом данных, ведет в нем журнал изменений и восстанавливает данные при запуске.
+//-----------------------------------------------------------------------------------------------------------
 public class KVServer {
     public static final int PORT = 8078;
+    static final int HANDLER_THREADS = 4;
+    private static final int STOP_TIMEOUT_SECONDS = 5;
     private final String apiToken;
     private final HttpServer server;
-    private final Map<String, String> data = new HashMap<>();
+    private final ExecutorService executor;
+    //Ключи упорядочены, поэтому ключи с общим префиксом (например, "task/") выбираются без перебора всех
+    private final KVStorage data;
+    private static final Type ENTRIES_TYPE = new TypeToken<LinkedHashMap<String, String>>() {
+    }.getType();
+    private static final Type KEYS_TYPE = new TypeToken<ArrayList<String>>() {
+    }.getType();
+    private final Gson gson = new GsonBuilder().serializeNulls().create();
 
     private boolean showMessages = false;
 
@@ -35,12 +65,185 @@ public class KVServer {
         }
     }
 
+    // Сервер с хранением данных только в памяти
     public KVServer() throws IOException {
+        this(new KVStorage());
+    }
+
+    // Сервер с хранением данных в каталоге dataDir (данные восстанавливаются из журнала в каталоге)
+    public KVServer(Path dataDir) throws IOException {
+        this(new KVStorage(dataDir));
+    }
+
+    private KVServer(KVStorage storage) throws IOException {
+        data = storage;
         apiToken = generateApiToken();
-        server = HttpServer.create(new InetSocketAddress("localhost", PORT), 0);
+        try {
+            server = HttpServer.create(new InetSocketAddress("localhost", PORT), 0);
+        } catch (IOException e) {
+            storage.close();
+            throw e;
+        }
+        executor = Executors.newFixedThreadPool(HANDLER_THREADS);
+        server.setExecutor(executor);
         server.createContext("/register", this::register);
         server.createContext("/save", this::save);
         server.createContext("/load", this::load);
+        server.createContext("/delete", this::delete);
+        server.createContext("/keys", this::keys);
+        server.createContext("/batch/save", this::batchSave);
+        server.createContext("/batch/load", this::batchLoad);
+    }
+
+    // Сохранение нескольких значений одним запросом: POST /batch/save, тело - JSON-объект {ключ: значение}.
+    // Значение null удаляет ключ. Пакет применяется целиком либо (при ошибке в пакете) не применяется
+    private void batchSave(HttpExchange h) throws IOException {
+        try {
+            msg("\nKVServer: /batch/save");
+            if (!hasAuth(h)) {
+                msg("KVServer: Запрос неавторизован, нужен параметр в query API_TOKEN со значением апи-ключа");
+                h.sendResponseHeaders(403, 0);
+                return;
+            }
+            if ("POST".equals(h.getRequestMethod())) {
+                Map<String, String> entries;
+                try {
+                    entries = gson.fromJson(jsonReader(h), ENTRIES_TYPE);
+                } catch (JsonParseException e) {
+                    msg("KVServer: Тело запроса не является JSON-объектом {ключ: значение}");
+                    h.sendResponseHeaders(400, 0);
+                    return;
+                }
+                if (entries == null) {
+                    msg("KVServer: Пакет для сохранения пустой. Пакет указывается в теле запроса");
+                    h.sendResponseHeaders(400, 0);
+                    return;
+                }
+                for (Map.Entry<String, String> entry : entries.entrySet()) {
+                    if (entry.getKey().isEmpty() || ((entry.getValue() != null) && entry.getValue().isEmpty())) {
+                        msg("KVServer: Пустой key или value в пакете для сохранения");
+                        h.sendResponseHeaders(400, 0);
+                        return;
+                    }
+                }
+                try {
+                    data.putAll(entries);
+                } catch (IOException e) {
+                    storageError(h, e);
+                    return;
+                }
+                msg("KVServer: Пакет из " + entries.size() + " значений успешно сохранен!");
+                h.sendResponseHeaders(200, 0);
+            } else {
+                msg("KVServer: /batch/save ждёт POST-запрос, а получил: " + h.getRequestMethod());
+                h.sendResponseHeaders(405, 0);
+            }
+        } finally {
+            h.close();
+        }
+    }
+
+    // Получение нескольких значений одним запросом (JSON-объект {ключ: значение}, отсутствующие ключи
+    // не включаются): POST /batch/load, тело - JSON-массив ключей, либо GET /batch/load/{prefix} - все
+    // значения с ключами с заданным префиксом
+    private void batchLoad(HttpExchange h) throws IOException {
+        try {
+            msg("\nKVServer: /batch/load");
+            if (!hasAuth(h)) {
+                msg("KVServer: Запрос неавторизован, нужен параметр в query API_TOKEN со значением апи-ключа");
+                h.sendResponseHeaders(403, 0);
+                return;
+            }
+            Map<String, String> entries = new LinkedHashMap<>();
+            if ("GET".equals(h.getRequestMethod())) {
+                String path = h.getRequestURI().getPath();
+                String prefix = (path.length() > "/batch/load/".length())
+                        ? path.substring("/batch/load/".length()) : "";
+                entries.putAll(data.prefixView(prefix));
+            } else if ("POST".equals(h.getRequestMethod())) {
+                List<String> keys;
+                try {
+                    keys = gson.fromJson(jsonReader(h), KEYS_TYPE);
+                } catch (JsonParseException e) {
+                    msg("KVServer: Тело запроса не является JSON-массивом ключей");
+                    h.sendResponseHeaders(400, 0);
+                    return;
+                }
+                if (keys != null) {
+                    for (String key : keys) {
+                        String value = data.get(key);
+                        if (value != null) {
+                            entries.put(key, value);
+                        }
+                    }
+                }
+            } else {
+                msg("KVServer: /batch/load ждёт GET- или POST-запрос, а получил: " + h.getRequestMethod());
+                h.sendResponseHeaders(405, 0);
+                return;
+            }
+            sendJson(h, entries, ENTRIES_TYPE);
+            msg("KVServer: Пакет из " + entries.size() + " значений успешно получен и отправлен!");
+        } finally {
+            h.close();
+        }
+    }
+
+    // Удаление значения: DELETE /delete/{key}. Удаление отсутствующего ключа не считается ошибкой
+    private void delete(HttpExchange h) throws IOException {
+        try {
+            msg("\nKVServer: /delete");
+            if (!hasAuth(h)) {
+                msg("KVServer: Запрос неавторизован, нужен параметр в query API_TOKEN со значением апи-ключа");
+                h.sendResponseHeaders(403, 0);
+                return;
+            }
+            if ("DELETE".equals(h.getRequestMethod())) {
+                String key = h.getRequestURI().getPath().substring("/delete/".length());
+                if (key.isEmpty()) {
+                    msg("KVServer: Key для удаления пустой. key указывается в пути: /delete/{key}");
+                    h.sendResponseHeaders(400, 0);
+                    return;
+                }
+                try {
+                    data.remove(key);
+                } catch (IOException e) {
+                    storageError(h, e);
+                    return;
+                }
+                msg("KVServer: Значение для ключа " + key + " удалено!");
+                h.sendResponseHeaders(200, 0);
+            } else {
+                msg("KVServer: /delete ждёт DELETE-запрос, а получил: " + h.getRequestMethod());
+                h.sendResponseHeaders(405, 0);
+            }
+        } finally {
+            h.close();
+        }
+    }
+
+    // Список ключей с заданным префиксом (JSON-массив): GET /keys/{prefix}, без префикса - все ключи
+    private void keys(HttpExchange h) throws IOException {
+        try {
+            msg("\nKVServer: /keys");
+            if (!hasAuth(h)) {
+                msg("KVServer: Запрос неавторизован, нужен параметр в query API_TOKEN со значением апи-ключа");
+                h.sendResponseHeaders(403, 0);
+                return;
+            }
+            if ("GET".equals(h.getRequestMethod())) {
+                String path = h.getRequestURI().getPath();
+                String prefix = (path.length() > "/keys/".length()) ? path.substring("/keys/".length()) : "";
+                NavigableMap<String, String> selected = data.prefixView(prefix);
+                sendText(h, gson.toJson(new ArrayList<>(selected.keySet())));
+                msg("KVServer: Список ключей с префиксом " + prefix + " отправлен!");
+            } else {
+                msg("KVServer: /keys ждёт GET-запрос, а получил: " + h.getRequestMethod());
+                h.sendResponseHeaders(405, 0);
+            }
+        } finally {
+            h.close();
+        }
     }
 
     private void load(HttpExchange h) throws IOException {
@@ -58,8 +261,9 @@ public class KVServer {
                     h.sendResponseHeaders(400, 0);
                     return;
                 }
-                if (data.containsKey(key)) {
-                    sendText(h, data.get(key));
+                String value = data.get(key);
+                if (value != null) {
+                    sendText(h, value);
                     msg("KVServer: Значение для ключа " + key + " успешно получено и отправлено!");
                 } else {
                     msg("KVServer: Значение для ключа " + key + " не найдено!");
@@ -96,7 +300,12 @@ public class KVServer {
                     h.sendResponseHeaders(400, 0);
                     return;
                 }
-                data.put(key, value);
+                try {
+                    data.put(key, value);
+                } catch (IOException e) {
+                    storageError(h, e);
+                    return;
+                }
                 msg("KVServer: Значение для ключа " + key + " успешно обновлено!");
                 h.sendResponseHeaders(200, 0);
             } else {
@@ -128,9 +337,32 @@ public class KVServer {
         server.start();
     }
 
+    // Остановка сервера. Журнал изменений сбрасывается на диск и закрывается
     public void stop() {
         System.out.println("KVServer: Останавливаем сервер на порту " + PORT);
         server.stop(0);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS); //Завершение начатых запросов
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            data.close();
+        } catch (IOException e) {
+            System.out.println("KVServer: Ошибка закрытия хранилища: " + e.getMessage());
+        }
+    }
+
+    // Сжатие журнала изменений: сегменты журнала заменяются снимком текущих данных
+    public void compact() throws IOException {
+        data.compact();
+    }
+
+    // Ошибка записи журнала: изменение не применено
+    private void storageError(HttpExchange h, IOException e) throws IOException {
+        System.out.println("KVServer: Ошибка записи в хранилище: " + e.getMessage());
+        h.sendResponseHeaders(500, 0);
     }
 
     private String generateApiToken() {
@@ -146,6 +378,20 @@ public class KVServer {
         return new String(h.getRequestBody().readAllBytes(), UTF_8);
     }
 
+    // Чтение JSON из потока тела запроса
+    private JsonReader jsonReader(HttpExchange h) {
+        return new JsonReader(new InputStreamReader(h.getRequestBody(), UTF_8));
+    }
+
+    // Ответ в JSON, записываемый сразу в поток тела ответа (длина ответа заранее не вычисляется)
+    private void sendJson(HttpExchange h, Object value, Type type) throws IOException {
+        h.getResponseHeaders().add("Content-Type", "application/json");
+        h.sendResponseHeaders(200, 0);
+        JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(h.getResponseBody(), UTF_8)));
+        gson.toJson(value, type, writer);
+        writer.flush();
+    }
+
     protected void sendText(HttpExchange h, String text) throws IOException {
         byte[] resp = text.getBytes(UTF_8);
         h.getResponseHeaders().add("Content-Type", "application/json");
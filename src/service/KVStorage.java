@@ -0,0 +1,411 @@
+package service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+//==========================================================================================================
+// Хранилище KVServer. Данные находятся в ConcurrentSkipListMap (чтение без блокировок, ключи упорядочены
+// для выборки по префиксу). Если задан каталог, каждое изменение до применения дописывается в журнал -
+// последовательность файлов-сегментов "segment-<номер>.log" - и данные переживают перезапуск.
+// Запись сегмента: int длина данных, int CRC32 данных, данные:
+//   byte тип (1 - изменения, 2 - начало снимка: предыдущее состояние отбрасывается), int количество
+//   изменений, изменения: byte операция (1 - запись, 2 - удаление), строка ключ, [строка значение]
+// Строка: int длина в байтах, байты UTF-8. Пакет изменений пишется одной записью и применяется целиком.
+// При запуске сегменты применяются по возрастанию номеров; неполная или поврежденная запись (сбой во
+// время записи) и все после нее отбрасываются, сегмент усекается. Записи передаются в файл сразу, без
+// буферизации в процессе; на диск сегмент сбрасывается при закрытии.
+// Сегмент закрывается при достижении segmentSize. Когда закрытых сегментов накапливается
+// compactionSegments, фоновый поток сжимает журнал: данные записываются во временный файл, который заменяет
+// последний закрытый сегмент, более ранние сегменты удаляются. Снимок читается из данных без блокировки
+// хранилища, одновременно с новыми изменениями, поэтому может включать часть изменений после закрытия
+// сегмента; эти изменения есть в следующих сегментах и при восстановлении применяются поверх снимка.
+//-----------------------------------------------------------------------------------------------------------
+
+final class KVStorage implements Closeable {
+    static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    static final int DEFAULT_COMPACTION_SEGMENTS = 4;
+    static final String SEGMENT_PREFIX = "segment-";
+    static final String SEGMENT_SUFFIX = ".log";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int SNAPSHOT_CHUNK = 1000; //Количество значений в одной записи снимка
+
+    private static final byte RECORD_CHANGES = 1;
+    private static final byte RECORD_SNAPSHOT = 2;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+
+    private final ConcurrentSkipListMap<String, String> data = new ConcurrentSkipListMap<>();
+    private final Path directory; //null - хранение только в памяти
+    private final long segmentSize;
+    private final int compactionSegments;
+    private final TreeSet<Long> sealedSegments = new TreeSet<>(); //Номера закрытых сегментов
+    private long activeSegment; //Номер сегмента, в который дописываются изменения
+    private FileChannel activeChannel;
+    private ExecutorService compactor; //Поток фонового сжатия журнала
+    private boolean compacting = false;
+
+    // Хранилище в памяти, без журнала
+    KVStorage() {
+        this.directory = null;
+        this.segmentSize = DEFAULT_SEGMENT_SIZE;
+        this.compactionSegments = DEFAULT_COMPACTION_SEGMENTS;
+    }
+
+    KVStorage(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_COMPACTION_SEGMENTS);
+    }
+
+    // Хранилище с журналом в каталоге. Данные восстанавливаются из сегментов журнала
+    KVStorage(Path directory, long segmentSize, int compactionSegments) throws IOException {
+        if ((segmentSize < 1) || (compactionSegments < 2)) {
+            throw new IllegalArgumentException("Недопустимые параметры журнала: размер сегмента " + segmentSize
+                    + ", сегментов до сжатия " + compactionSegments);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.compactionSegments = compactionSegments;
+        Files.createDirectories(directory);
+        recover();
+        openSegment(sealedSegments.isEmpty() ? 1 : sealedSegments.last() + 1);
+        compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "KVStorage-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    String get(String key) {
+        return data.get(key);
+    }
+
+    // Значения с ключами с заданным префиксом (представление, отражающее последующие изменения)
+    NavigableMap<String, String> prefixView(String prefix) {
+        return prefix.isEmpty() ? data : data.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    void put(String key, String value) throws IOException {
+        putAll(Collections.singletonMap(key, value));
+    }
+
+    void remove(String key) throws IOException {
+        putAll(Collections.singletonMap(key, null));
+    }
+
+    // Применение пакета изменений (значение null удаляет ключ). Пакет записывается в журнал одной записью
+    synchronized void putAll(Map<String, String> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        if (activeChannel != null) {
+            appendRecord(activeChannel, RECORD_CHANGES, entries);
+        }
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            if (entry.getValue() == null) {
+                data.remove(entry.getKey());
+            } else {
+                data.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if ((activeChannel != null) && (activeChannel.size() >= segmentSize)) {
+            sealActiveSegment();
+            if ((sealedSegments.size() >= compactionSegments) && !compacting) {
+                startCompaction(true);
+            }
+        }
+    }
+
+    // Сжатие журнала с ожиданием завершения
+    void compact() throws IOException {
+        Runnable compaction;
+        synchronized (this) {
+            if ((activeChannel == null) || compacting) {
+                return;
+            }
+            sealActiveSegment();
+            compaction = startCompaction(false);
+        }
+        compaction.run();
+    }
+
+    // Количество сегментов журнала (вместе с текущим)
+    synchronized int segmentCount() {
+        return sealedSegments.size() + ((activeChannel != null) ? 1 : 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        ExecutorService stoppedCompactor;
+        synchronized (this) {
+            stoppedCompactor = compactor;
+            compactor = null;
+        }
+        if (stoppedCompactor != null) {
+            stoppedCompactor.shutdown();
+            try {
+                stoppedCompactor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (activeChannel != null) {
+                activeChannel.force(true);
+                activeChannel.close();
+                activeChannel = null;
+            }
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------------------
+    // Сегменты журнала
+    //----------------------------------------------------------------------------------------------------------
+
+    private Path segmentPath(long number) {
+        return directory.resolve(SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+    }
+
+    private void openSegment(long number) throws IOException {
+        activeSegment = number;
+        activeChannel = FileChannel.open(segmentPath(number), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    // Закрытие текущего сегмента (со сбросом на диск) и переход к следующему
+    private void sealActiveSegment() throws IOException {
+        activeChannel.force(true);
+        activeChannel.close();
+        sealedSegments.add(activeSegment);
+        openSegment(activeSegment + 1);
+    }
+
+    private static void appendRecord(FileChannel channel, byte type, Map<String, String> entries)
+            throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte(type);
+        out.writeInt(entries.size());
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            out.writeByte((entry.getValue() == null) ? OP_DELETE : OP_PUT);
+            writeString(out, entry.getKey());
+            if (entry.getValue() != null) {
+                writeString(out, entry.getValue());
+            }
+        }
+        out.flush();
+        byte[] bytes = payload.toByteArray();
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes);
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + bytes.length);
+        record.putInt(bytes.length).putInt((int) checksum.getValue()).put(bytes).flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    //----------------------------------------------------------------------------------------------------------
+    // Восстановление
+    //----------------------------------------------------------------------------------------------------------
+
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(TEMP_SUFFIX)) {
+                    //Незавершенное сжатие
+                    Files.delete(file);
+                } else if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        sealedSegments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                                name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        //Посторонний файл
+                    }
+                }
+            }
+        }
+        for (long number : sealedSegments) {
+            replaySegment(segmentPath(number));
+        }
+    }
+
+    // Применение записей сегмента. Сегмент усекается по последней полной записи
+    private void replaySegment(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, Integer.MAX_VALUE - 8));
+            while (buffer.hasRemaining() && (channel.read(buffer) >= 0)) {
+                //Сегмент читается целиком
+            }
+            buffer.flip();
+            long validSize = 0;
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                int length = buffer.getInt();
+                int crc = buffer.getInt();
+                if ((length < 0) || (length > buffer.remaining())) {
+                    break;
+                }
+                CRC32 checksum = new CRC32();
+                checksum.update(buffer.array(), buffer.position(), length);
+                if ((int) checksum.getValue() != crc) {
+                    break;
+                }
+                ByteBuffer payload = buffer.slice();
+                payload.limit(length);
+                try {
+                    applyRecord(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+                buffer.position(buffer.position() + length);
+                validSize = buffer.position();
+            }
+            if (validSize < size) {
+                System.out.println("KVStorage: в сегменте " + file + " отброшена неполная запись ("
+                        + (size - validSize) + " байт)");
+                channel.truncate(validSize);
+                channel.force(true);
+            }
+        }
+    }
+
+    private void applyRecord(ByteBuffer payload) throws EOFException {
+        try {
+            byte type = payload.get();
+            if (type == RECORD_SNAPSHOT) {
+                data.clear();
+            } else if (type != RECORD_CHANGES) {
+                throw new EOFException("Неизвестный тип записи " + type);
+            }
+            //Изменения записи применяются только после ее полного разбора
+            int count = payload.getInt();
+            List<String[]> changes = new ArrayList<>(Math.min(count, payload.remaining()));
+            for (int i = 0; i < count; i++) {
+                byte op = payload.get();
+                String key = readString(payload);
+                String value = (op == OP_PUT) ? readString(payload) : null;
+                changes.add(new String[]{key, value});
+            }
+            for (String[] change : changes) {
+                if (change[1] == null) {
+                    data.remove(change[0]);
+                } else {
+                    data.put(change[0], change[1]);
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new EOFException("Поврежденная запись: " + e.getMessage());
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    //----------------------------------------------------------------------------------------------------------
+    // Сжатие журнала
+    //----------------------------------------------------------------------------------------------------------
+
+    // Подготовка сжатия (вызывается при блокировке хранилища сразу после закрытия сегмента). Данные не
+    // копируются: задача записи снимка читает их сама, вне блокировки. Возвращает задачу записи снимка,
+    // при background - запускает ее в фоне
+    private Runnable startCompaction(boolean background) {
+        compacting = true;
+        long lastSealed = sealedSegments.last();
+        Runnable compaction = () -> {
+            try {
+                writeCompacted(lastSealed);
+            } catch (IOException e) {
+                System.out.println("KVStorage: ошибка сжатия журнала: " + e.getMessage());
+            } finally {
+                synchronized (this) {
+                    compacting = false;
+                }
+            }
+        };
+        if (background && (compactor != null)) {
+            compactor.execute(compaction);
+        }
+        return compaction;
+    }
+
+    // Запись снимка на место сегмента lastSealed и удаление более ранних сегментов. Снимок читается
+    // итератором ConcurrentSkipListMap: каждое значение в нем не старше состояния на момент закрытия сегмента
+    private void writeCompacted(long lastSealed) throws IOException {
+        Path target = segmentPath(lastSealed);
+        Path tempFile = directory.resolve(target.getFileName() + TEMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            appendRecord(channel, RECORD_SNAPSHOT, Collections.emptyMap());
+            Map<String, String> chunk = new TreeMap<>();
+            for (Map.Entry<String, String> entry : data.entrySet()) {
+                chunk.put(entry.getKey(), entry.getValue());
+                if (chunk.size() == SNAPSHOT_CHUNK) {
+                    appendRecord(channel, RECORD_CHANGES, chunk);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                appendRecord(channel, RECORD_CHANGES, chunk);
+            }
+            channel.force(true);
+        }
+        //Изменения, попавшие в снимок после закрытия сегмента, сбрасываются на диск в текущем сегменте раньше,
+        //чем снимок заменит журнал: иначе при сбое питания снимок сохранил бы часть пакета без его записи
+        synchronized (this) {
+            if (activeChannel != null) {
+                activeChannel.force(true);
+            }
+        }
+        try {
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        //Снимок начинается с записи о сбросе состояния, поэтому ранние сегменты можно удалять в любом порядке
+        List<Long> obsolete;
+        synchronized (this) {
+            obsolete = new ArrayList<>(sealedSegments.headSet(lastSealed, false));
+            sealedSegments.removeAll(obsolete);
+        }
+        for (long number : obsolete) {
+            Files.deleteIfExists(segmentPath(number));
+        }
+    }
+}
@@ -1,16 +1,62 @@
 package service;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Type;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+//==========================================================================================================
+// Клиент KVServer. Запросы изменения (put/delete/putAll) выполняются асинхронно (методы *Async возвращают
+// CompletableFuture с телом ответа, null - при ошибке). Запрос отправляется после завершения предыдущих
+// запросов с теми же ключами, поэтому изменения одного ключа применяются в порядке вызовов, а запросы
+// с разными ключами выполняются одновременно. Количество незавершенных запросов ограничено maxInFlight:
+// при заполнении окна вызов ждет завершения одного из запросов (не дольше IN_FLIGHT_TIMEOUT_MILLIS, затем
+// запрос завершается ошибкой), а tryPutAllAsync не ждет и не отправляет пакет. Ожидание выполняется вне
+// блокировки клиента, поэтому не задерживает вызовы из других потоков; порядок изменений одного ключа
+// соблюдается для вызовов из одного потока. Синхронные методы ждут результата асинхронных, чтение ключа
+// выполняется после незавершенных изменений этого ключа.
+// Пакеты записываются в JSON сразу в байты тела запроса, ответы с JSON разбираются из потока ответа.
+//-----------------------------------------------------------------------------------------------------------
 
 public class KVTaskClient {
+    static final int DEFAULT_MAX_IN_FLIGHT = 8; //Количество незавершенных запросов по умолчанию
+    static final long IN_FLIGHT_TIMEOUT_MILLIS = 30_000; //Максимальное ожидание места в окне запросов
 
     private final HttpClient client;
     private final String storageUrl;
     private final String API_TOKEN;
+    private static final Gson GSON = new GsonBuilder().serializeNulls().create(); //null в пакете удаляет ключ
+    private static final Type ENTRIES_TYPE = new TypeToken<LinkedHashMap<String, String>>() {
+    }.getType();
+    private static final Type KEYS_TYPE = new TypeToken<ArrayList<String>>() {
+    }.getType();
+    private final Semaphore inFlight; //Окно незавершенных запросов
+    //Последний незавершенный запрос по ключу
+    private final Map<String, CompletableFuture<String>> lastRequests = new ConcurrentHashMap<>();
 
     private boolean showMessages = false;
 
@@ -30,22 +76,150 @@ public class KVTaskClient {
 
     private String doSimpleRequest(HttpRequest request) {
         try {
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            // проверяем, успешно ли обработан запрос
-            if (response.statusCode() == 200) {
-                return response.body();
-            } else {
-                msg("KVTaskClient: Что-то пошло не так. Сервер вернул код состояния: " + response.statusCode());
-            }
+            return checkResponse(client.send(request, HttpResponse.BodyHandlers.ofString()));
         } catch (IOException | InterruptedException e) { // обрабатываем ошибки отправки запроса
-            System.out.println("KVTaskClient: Во время выполнения запроса возникла ошибка.\n" +
-                    "Проверьте, пожалуйста, запрос и повторите попытку.");
-            System.out.println(e.getMessage());
+            printRequestError(e);
+        }
+        return null;
+    }
+
+    // Запрос с ответом в JSON. Ответ разбирается из потока, без чтения тела в строку
+    private <T> T doJsonRequest(HttpRequest request, Type type) {
+        try {
+            HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            try (JsonReader reader = new JsonReader(new InputStreamReader(response.body(), UTF_8))) {
+                if (response.statusCode() != 200) {
+                    msg("KVTaskClient: Что-то пошло не так. Сервер вернул код состояния: " + response.statusCode());
+                    return null;
+                }
+                return GSON.fromJson(reader, type);
+            }
+        } catch (IOException | InterruptedException | JsonParseException e) { // обрабатываем ошибки запроса
+            printRequestError(e);
+        }
+        return null;
+    }
+
+    // Тело запроса в JSON. Значение записывается сразу в байты UTF-8, без промежуточной строки
+    private static HttpRequest.BodyPublisher jsonBody(Object value, Type type) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, UTF_8))) {
+            GSON.toJson(value, type, writer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); //Запись в память не завершается ошибкой ввода-вывода
         }
+        return HttpRequest.BodyPublishers.ofByteArray(out.toByteArray());
+    }
+
+    private CompletableFuture<String> doAsyncRequest(HttpRequest request) {
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).handle((response, e) -> {
+            if (e != null) { // обрабатываем ошибки отправки запроса
+                printRequestError(e);
+                return null;
+            }
+            return checkResponse(response);
+        });
+    }
+
+    private String checkResponse(HttpResponse<String> response) {
+        // проверяем, успешно ли обработан запрос
+        if (response.statusCode() == 200) {
+            return response.body();
+        }
+        msg("KVTaskClient: Что-то пошло не так. Сервер вернул код состояния: " + response.statusCode());
         return null;
     }
 
+    private void printRequestError(Throwable e) {
+        System.out.println("KVTaskClient: Во время выполнения запроса возникла ошибка.\n" +
+                "Проверьте, пожалуйста, запрос и повторите попытку.");
+        System.out.println(e.getMessage());
+    }
+
+    // Асинхронный запрос, упорядоченный по ключам: отправляется после завершения предыдущих запросов с теми же
+    // ключами. Место в окне незавершенных запросов ожидается до входа в блокировку клиента; если место не
+    // освободилось за IN_FLIGHT_TIMEOUT_MILLIS (или ожидание прервано), запрос завершается ошибкой (null)
+    private CompletableFuture<String> doOrderedRequest(Collection<String> keys, HttpRequest request) {
+        try {
+            if (!inFlight.tryAcquire(IN_FLIGHT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                msg("KVTaskClient: Нет места в окне запросов, запрос не отправлен: " + request.uri().getPath());
+                return CompletableFuture.completedFuture(null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            printRequestError(e);
+            return CompletableFuture.completedFuture(null);
+        }
+        return chainAcquiredRequest(keys, request);
+    }
+
+    // Постановка запроса, для которого место в окне уже получено; при ошибке постановки место освобождается
+    private CompletableFuture<String> chainAcquiredRequest(Collection<String> keys, HttpRequest request) {
+        boolean chained = false;
+        try {
+            CompletableFuture<String> future = chainOrderedRequest(keys, request);
+            chained = true;
+            return future;
+        } finally {
+            if (!chained) {
+                inFlight.release();
+            }
+        }
+    }
+
+    // Постановка запроса после предыдущих запросов с теми же ключами (место в окне уже получено)
+    private synchronized CompletableFuture<String> chainOrderedRequest(Collection<String> keys,
+                                                                       HttpRequest request) {
+        List<CompletableFuture<String>> previous = new ArrayList<>();
+        for (String key : keys) {
+            CompletableFuture<String> last = lastRequests.get(key);
+            if (last != null) {
+                previous.add(last);
+            }
+        }
+        CompletableFuture<String> future = allOf(previous)
+                .thenCompose(v -> doAsyncRequest(request))
+                .whenComplete((result, e) -> inFlight.release());
+        for (String key : keys) {
+            lastRequests.put(key, future);
+        }
+        future.whenComplete((result, e) -> {
+            for (String key : keys) {
+                lastRequests.remove(key, future);
+            }
+        });
+        return future;
+    }
+
+    // Ожидание завершения всех отправленных запросов изменения
+    void awaitPending() {
+        allOf(lastRequests.values()).join();
+    }
+
+    // Завершение всех запросов коллекции
+    private static CompletableFuture<Void> allOf(Collection<? extends CompletableFuture<?>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    // Ожидание завершения отправленных запросов изменения заданных ключей
+    private void awaitPending(Collection<String> keys) {
+        for (String key : keys) {
+            CompletableFuture<String> last = lastRequests.get(key);
+            if (last != null) {
+                last.join();
+            }
+        }
+    }
+
     public KVTaskClient(String storageUrl) {
+        this(storageUrl, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public KVTaskClient(String storageUrl, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Недопустимое количество незавершенных запросов: " + maxInFlight);
+        }
+        inFlight = new Semaphore(maxInFlight);
         client = HttpClient.newHttpClient();
         this.storageUrl = storageUrl;
         HttpRequest request = HttpRequest.newBuilder()
@@ -59,11 +233,15 @@ public class KVTaskClient {
     }
 
     void put(String key, String json) {
+        putAsync(key, json).join();
+    }
+
+    CompletableFuture<String> putAsync(String key, String json) {
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(storageUrl + "/save/" + key + "?API_TOKEN=" + API_TOKEN))
                 .POST(HttpRequest.BodyPublishers.ofString(json))
                 .build();
-        doSimpleRequest(request);
+        return doOrderedRequest(List.of(key), request);
     }
 
     String load(String key) {
@@ -71,6 +249,93 @@ public class KVTaskClient {
                 .uri(URI.create(storageUrl + "/load/" + key + "?API_TOKEN=" + API_TOKEN))
                 .GET()
                 .build();
+        awaitPending(List.of(key));
         return doSimpleRequest(request);
     }
+
+    void delete(String key) {
+        deleteAsync(key).join();
+    }
+
+    CompletableFuture<String> deleteAsync(String key) {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(storageUrl + "/delete/" + key + "?API_TOKEN=" + API_TOKEN))
+                .DELETE()
+                .build();
+        return doOrderedRequest(List.of(key), request);
+    }
+
+    // Ключи хранилища с заданным префиксом (после завершения отправленных изменений)
+    List<String> keys(String prefix) {
+        awaitPending();
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(storageUrl + "/keys/" + prefix + "?API_TOKEN=" + API_TOKEN))
+                .GET()
+                .build();
+        List<String> keys = doJsonRequest(request, KEYS_TYPE);
+        return (keys != null) ? keys : new ArrayList<>();
+    }
+
+    // Сохранение нескольких значений одним запросом. Значение null удаляет ключ
+    void putAll(Map<String, String> entries) {
+        putAllAsync(entries).join();
+    }
+
+    CompletableFuture<String> putAllAsync(Map<String, String> entries) {
+        if (entries.isEmpty()) {
+            return CompletableFuture.completedFuture("");
+        }
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(storageUrl + "/batch/save?API_TOKEN=" + API_TOKEN))
+                .POST(jsonBody(entries, ENTRIES_TYPE))
+                .build();
+        return doOrderedRequest(new ArrayList<>(entries.keySet()), request);
+    }
+
+    // Сохранение нескольких значений без ожидания места в окне запросов: если окно заполнено, запрос
+    // не отправляется и возвращается null (вызывающий может повторить отправку позже)
+    CompletableFuture<String> tryPutAllAsync(Map<String, String> entries) {
+        if (entries.isEmpty()) {
+            return CompletableFuture.completedFuture("");
+        }
+        if (!inFlight.tryAcquire()) {
+            return null;
+        }
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder()
+                    .uri(URI.create(storageUrl + "/batch/save?API_TOKEN=" + API_TOKEN))
+                    .POST(jsonBody(entries, ENTRIES_TYPE))
+                    .build();
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+        return chainAcquiredRequest(new ArrayList<>(entries.keySet()), request);
+    }
+
+    // Получение значений заданных ключей одним запросом (отсутствующие ключи не включаются)
+    Map<String, String> loadAll(Collection<String> keys) {
+        awaitPending(keys);
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(storageUrl + "/batch/load?API_TOKEN=" + API_TOKEN))
+                .POST(jsonBody(new ArrayList<>(keys), KEYS_TYPE))
+                .build();
+        return entriesOrEmpty(doJsonRequest(request, ENTRIES_TYPE));
+    }
+
+    // Получение всех значений с ключами с заданным префиксом одним запросом (после завершения отправленных
+    // изменений)
+    Map<String, String> loadAll(String prefix) {
+        awaitPending();
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(storageUrl + "/batch/load/" + prefix + "?API_TOKEN=" + API_TOKEN))
+                .GET()
+                .build();
+        return entriesOrEmpty(doJsonRequest(request, ENTRIES_TYPE));
+    }
+
+    private static Map<String, String> entriesOrEmpty(Map<String, String> entries) {
+        return (entries != null) ? entries : new LinkedHashMap<>();
+    }
 }
@@ -0,0 +1,145 @@
+package service;
+
+import java.util.Arrays;
+
+//==========================================================================================================
+// Хеш-таблица с ключами long и значениями int без упаковки в объекты (Long/Integer) и без записей на
+// каждый элемент. Открытая адресация с линейным пробированием, удаление со сдвигом последующих элементов
+// цепочки (без "надгробий"). Значения должны быть неотрицательными: отрицательное значение NO_VALUE
+// обозначает отсутствие ключа.
+//-----------------------------------------------------------------------------------------------------------
+
+class LongIntHashMap {
+    static final int NO_VALUE = -1; //Признак отсутствия ключа
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] values; //NO_VALUE в ячейке означает, что ячейка свободна
+    private int mask;
+    private int size = 0;
+    private int threshold; //Количество элементов, при котором таблица увеличивается
+
+    LongIntHashMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    int get(long key) {
+        int slot = find(key);
+        return (slot < 0) ? NO_VALUE : values[slot];
+    }
+
+    boolean containsKey(long key) {
+        return find(key) >= 0;
+    }
+
+    // Запись значения. Возвращает прежнее значение или NO_VALUE
+    int put(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Недопустимое значение: " + value);
+        }
+        int slot = slotOf(key);
+        while (values[slot] != NO_VALUE) {
+            if (keys[slot] == key) {
+                int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > threshold) {
+            resize(keys.length * 2);
+        }
+        return NO_VALUE;
+    }
+
+    // Удаление ключа. Возвращает удаленное значение или NO_VALUE
+    int remove(long key) {
+        int slot = find(key);
+        if (slot < 0) {
+            return NO_VALUE;
+        }
+        int previous = values[slot];
+        //Сдвигаем назад элементы цепочки, которые не смогут быть найдены после освобождения ячейки
+        int free = slot;
+        int next = (slot + 1) & mask;
+        while (values[next] != NO_VALUE) {
+            int home = slotOf(keys[next]);
+            //Элемент можно перенести, если его исходная ячейка не лежит между свободной и текущей
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                values[free] = values[next];
+                free = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[free] = NO_VALUE;
+        size--;
+        return previous;
+    }
+
+    // Подготовка таблицы к размещению заданного количества элементов без последующих увеличений
+    void ensureCapacity(int expectedSize) {
+        int capacity = keys.length;
+        while ((capacity / 4 * 3 < expectedSize) && (capacity < (1 << 30))) {
+            capacity *= 2;
+        }
+        if (capacity > keys.length) {
+            resize(capacity);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+    }
+
+    private int find(long key) {
+        int slot = slotOf(key);
+        while (values[slot] != NO_VALUE) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int slotOf(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L; //Перемешивание битов (мультипликативное хеширование)
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, NO_VALUE);
+        mask = capacity - 1;
+        threshold = capacity / 4 * 3; //Коэффициент заполнения 0.75
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != NO_VALUE) {
+                int slot = slotOf(oldKeys[i]);
+                while (values[slot] != NO_VALUE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.zip.CRC32;
+
+//==========================================================================================================
+// Чтение файла менеджера (CSV в UTF-8), отображенного в память (MappedByteBuffer). Строки разбираются прямо
+// в отображенной области по байтам: для полей запоминаются границы, числа, время и продолжительность
+// разбираются из байтов, строки создаются только для текстовых полей. Разбор байтов корректен для UTF-8:
+// байты многобайтовых символов не совпадают с кавычкой, запятой и переводом строки.
+// Состояния разбора поля те же, что в CsvCodec: начало поля, в кавычках, кавычка в кавычках, без кавычек.
+// Для параллельного разбора читатель создается на участок файла (segment): участки читаются независимо
+// через копии буфера с общим содержимым.
+// Контрольная сумма (CRC32) прочитанных байтов считается по ходу чтения (startChecksum()/finishChecksum()),
+// блоками по мере продвижения по строкам, без отдельного прохода по файлу.
+//-----------------------------------------------------------------------------------------------------------
+
+final class MappedCsvReader {
+    static final int MAX_FIELDS = 16; //Максимальное количество полей строки
+    private static final int CHECKSUM_BLOCK_SIZE = 64 * 1024; //Размер блока подсчета контрольной суммы
+
+    private static final byte QUOTE = '"';
+    private static final byte DELIMITER = ',';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte[] BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    private final ByteBuffer buffer;
+    private final int limit; //Конец читаемого участка
+    private int position; //Начало следующей строки
+    private int lineStart; //Начало текущей строки
+    private int lineEnd; //Конец текущей строки (без перевода строки)
+    private int fieldCount;
+    private final int[] fieldStarts = new int[MAX_FIELDS]; //Начало значения поля (без кавычек)
+    private final int[] fieldEnds = new int[MAX_FIELDS]; //Конец значения поля (без кавычек)
+    private final boolean[] fieldEscaped = new boolean[MAX_FIELDS]; //В значении есть пары кавычек ""
+    private byte[] bytes = new byte[256]; //Буфер копирования текстовых значений
+    private CRC32 checksum; //Контрольная сумма прочитанных байтов (null - не считается)
+    private int checksumPosition; //Конец части участка, учтенной в контрольной сумме
+
+    private MappedCsvReader(ByteBuffer buffer, int start, int limit) {
+        this.buffer = buffer;
+        this.position = start;
+        this.limit = limit;
+    }
+
+    // Отображение файла в память. Файлы больше 2 ГБ одной областью не отображаются
+    static MappedCsvReader open(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Файл " + file + " слишком велик для отображения в память");
+            }
+            //Отображение остается действительным после закрытия канала
+            MappedCsvReader reader = new MappedCsvReader(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size()), 0, (int) channel.size());
+            reader.skipBom();
+            return reader;
+        }
+    }
+
+    private void skipBom() {
+        if ((limit >= BOM.length) && (buffer.get(0) == BOM[0]) && (buffer.get(1) == BOM[1])
+                && (buffer.get(2) == BOM[2])) {
+            position = BOM.length;
+        }
+    }
+
+    // Читатель участка файла [start, end). Участок должен начинаться с начала строки
+    MappedCsvReader segment(int start, int end) {
+        return new MappedCsvReader(buffer.duplicate(), start, end);
+    }
+
+    // Начало подсчета контрольной суммы байтов участка, начиная с from (from не больше начала следующей строки)
+    void startChecksum(int from) {
+        checksum = new CRC32();
+        checksumPosition = from;
+    }
+
+    // Контрольная сумма байтов от начала подсчета до конца участка (включая непрочитанный остаток)
+    long finishChecksum() {
+        updateChecksum(limit);
+        return checksum.getValue();
+    }
+
+    private void updateChecksum(int to) {
+        if (to > checksumPosition) {
+            checksum.update(buffer.slice(checksumPosition, to - checksumPosition));
+            checksumPosition = to;
+        }
+    }
+
+    // Начало следующей строки (конец прочитанной части)
+    int position() {
+        return position;
+    }
+
+    // Конец читаемого участка
+    int limit() {
+        return limit;
+    }
+
+    // Начало первой строки, начинающейся не раньше offset (limit, если таких строк нет)
+    int lineStartFrom(int offset) {
+        if ((offset <= position) || (offset >= limit)) {
+            return Math.min(Math.max(offset, position), limit);
+        }
+        if (buffer.get(offset - 1) == LF) {
+            return offset;
+        }
+        int i = offset;
+        while ((i < limit) && (buffer.get(i) != LF)) {
+            i++;
+        }
+        return Math.min(i + 1, limit);
+    }
+
+    // Переход к следующей строке. Возвращает false в конце файла
+    boolean nextLine() {
+        if (position >= limit) {
+            return false;
+        }
+        int end = position;
+        while ((end < limit) && (buffer.get(end) != LF)) {
+            end++;
+        }
+        int next = end + 1;
+        if ((end > position) && (buffer.get(end - 1) == CR)) {
+            end--;
+        }
+        lineStart = position;
+        lineEnd = end;
+        splitFields(position, end);
+        position = next;
+        if ((checksum != null) && (position - checksumPosition >= CHECKSUM_BLOCK_SIZE)) {
+            updateChecksum(Math.min(position, limit));
+        }
+        return true;
+    }
+
+    boolean isEmptyLine() {
+        return lineEnd == lineStart;
+    }
+
+    // Разбиение строки на поля
+    private void splitFields(int start, int end) {
+        fieldCount = 0;
+        int i = start;
+        while (true) {
+            if (fieldCount == MAX_FIELDS) {
+                throw new IllegalArgumentException("Слишком много полей в строке CSV: " + lineToString());
+            }
+            boolean escaped = false;
+            int fieldStart;
+            int fieldEnd;
+            if ((i < end) && (buffer.get(i) == QUOTE)) {
+                //Поле в кавычках: ищем закрывающую кавычку, пропуская пары ""
+                fieldStart = ++i;
+                while (true) {
+                    if (i >= end) {
+                        throw new IllegalArgumentException("Некорректная строка CSV (нет закрывающей кавычки): "
+                                + lineToString());
+                    }
+                    if (buffer.get(i) == QUOTE) {
+                        if ((i + 1 < end) && (buffer.get(i + 1) == QUOTE)) {
+                            escaped = true;
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                fieldEnd = i++;
+                if ((i < end) && (buffer.get(i) != DELIMITER)) {
+                    throw new IllegalArgumentException("Некорректная строка CSV (символ после кавычки в позиции "
+                            + (i - start) + "): " + lineToString());
+                }
+            } else {
+                fieldStart = i;
+                while ((i < end) && (buffer.get(i) != DELIMITER)) {
+                    i++;
+                }
+                fieldEnd = i;
+            }
+            fieldStarts[fieldCount] = fieldStart;
+            fieldEnds[fieldCount] = fieldEnd;
+            fieldEscaped[fieldCount] = escaped;
+            fieldCount++;
+            if (i >= end) {
+                return;
+            }
+            i++; //Пропускаем разделитель
+        }
+    }
+
+    int fieldCount() {
+        return fieldCount;
+    }
+
+    boolean isEmpty(int field) {
+        return fieldStarts[field] == fieldEnds[field];
+    }
+
+    // Сравнение значения поля с ASCII-строкой без создания строки
+    boolean fieldEquals(int field, String value) {
+        int start = fieldStarts[field];
+        if ((fieldEnds[field] - start != value.length()) || fieldEscaped[field]) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (buffer.get(start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int intField(int field) {
+        int i = fieldStarts[field];
+        int end = fieldEnds[field];
+        boolean negative = (i < end) && (buffer.get(i) == '-');
+        if (negative) {
+            i++;
+        }
+        if (i >= end) {
+            throw new NumberFormatException("Пустое число в строке CSV: " + lineToString());
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if ((digit < 0) || (digit > 9) || (value > Integer.MAX_VALUE)) {
+                throw new NumberFormatException("Некорректное число в строке CSV: " + lineToString());
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if ((value < Integer.MIN_VALUE) || (value > Integer.MAX_VALUE)) {
+            throw new NumberFormatException("Некорректное число в строке CSV: " + lineToString());
+        }
+        return (int) value;
+    }
+
+    String stringField(int field) {
+        int start = fieldStarts[field];
+        int length = fieldEnds[field] - start;
+        if (bytes.length < length) {
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+        }
+        if (!fieldEscaped[field]) {
+            buffer.get(start, bytes, 0, length);
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+        //Убираем пары кавычек
+        int count = 0;
+        for (int i = start; i < start + length; i++) {
+            byte b = buffer.get(i);
+            bytes[count++] = b;
+            if (b == QUOTE) {
+                i++;
+            }
+        }
+        return new String(bytes, 0, count, StandardCharsets.UTF_8);
+    }
+
+    // Время в формате LocalDateTime.toString(): uuuu-MM-ddTHH:mm[:ss[.f]]. Прочие формы разбираются
+    // стандартным разбором
+    LocalDateTime dateTimeField(int field) {
+        int s = fieldStarts[field];
+        int length = fieldEnds[field] - s;
+        if ((length < 16) || (buffer.get(s + 4) != '-') || (buffer.get(s + 7) != '-')
+                || (buffer.get(s + 10) != 'T') || (buffer.get(s + 13) != ':')) {
+            return LocalDateTime.parse(stringField(field));
+        }
+        int year = digits(s, 4);
+        int month = digits(s + 5, 2);
+        int day = digits(s + 8, 2);
+        int hour = digits(s + 11, 2);
+        int minute = digits(s + 14, 2);
+        int second = 0;
+        int nano = 0;
+        if (length > 16) {
+            if ((length < 19) || (buffer.get(s + 16) != ':')) {
+                return LocalDateTime.parse(stringField(field));
+            }
+            second = digits(s + 17, 2);
+            if (length > 19) {
+                int fractionLength = length - 20;
+                if ((buffer.get(s + 19) != '.') || (fractionLength < 1) || (fractionLength > 9)) {
+                    return LocalDateTime.parse(stringField(field));
+                }
+                nano = digits(s + 20, fractionLength);
+                for (int i = fractionLength; i < 9; i++) {
+                    nano *= 10;
+                }
+            }
+        }
+        if ((year | month | day | hour | minute | second | nano) < 0) {
+            return LocalDateTime.parse(stringField(field));
+        }
+        return LocalDateTime.of(year, month, day, hour, minute, second, nano);
+    }
+
+    // Продолжительность в формате Duration.toString(): PT[nH][nM][n[.f]S]. Отрицательные значения и прочие
+    // формы разбираются стандартным разбором
+    Duration durationField(int field) {
+        int i = fieldStarts[field];
+        int end = fieldEnds[field];
+        if ((end - i < 3) || (buffer.get(i) != 'P') || (buffer.get(i + 1) != 'T')) {
+            return Duration.parse(stringField(field));
+        }
+        i += 2;
+        long seconds = 0;
+        int nanos = 0;
+        while (i < end) {
+            long value = 0;
+            int numberStart = i;
+            while ((i < end) && (buffer.get(i) >= '0') && (buffer.get(i) <= '9') && (i - numberStart < 18)) {
+                value = value * 10 + (buffer.get(i) - '0');
+                i++;
+            }
+            if ((i == numberStart) || (i >= end)) {
+                return Duration.parse(stringField(field));
+            }
+            byte unit = buffer.get(i);
+            if (unit == 'H') {
+                seconds += value * 3600;
+            } else if (unit == 'M') {
+                seconds += value * 60;
+            } else if (unit == 'S') {
+                seconds += value;
+            } else if ((unit == '.') && (end - i - 2 >= 1) && (end - i - 2 <= 9) && (buffer.get(end - 1) == 'S')) {
+                int fractionLength = end - i - 2;
+                nanos = digits(i + 1, fractionLength);
+                if (nanos < 0) {
+                    return Duration.parse(stringField(field));
+                }
+                for (int k = fractionLength; k < 9; k++) {
+                    nanos *= 10;
+                }
+                seconds += value;
+                i = end - 1;
+            } else {
+                return Duration.parse(stringField(field));
+            }
+            i++;
+        }
+        return Duration.ofSeconds(seconds, nanos);
+    }
+
+    // Число из заданного количества десятичных цифр, -1 если встречен другой символ
+    private int digits(int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = buffer.get(i) - '0';
+            if ((digit < 0) || (digit > 9)) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    // Текущая строка целиком (для заголовка и сообщений об ошибках)
+    String lineToString() {
+        int length = lineEnd - lineStart;
+        byte[] line = new byte[length];
+        buffer.get(lineStart, line, 0, length);
+        return new String(line, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,372 @@
+package service;
+
+import model.Task;
+import model.TimeSlot;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+//==========================================================================================================
+// Индекс задач в порядке приоритета (по времени начала).
+// Задачи с заданным временем начала хранятся в упорядоченном списке, разбитом на блоки не более
+// BLOCK_SIZE записей. Ключ записи - минута начала задачи в виде числа минут от начала эпохи (long), при
+// равенстве минут записи упорядочены по времени начала, затем по id. Позиция записи (добавление, удаление,
+// начало периода) находится двоичным поиском сначала по блокам, затем внутри блока.
+// Задачи без времени начала хранятся отдельно (в порядке id) и следуют после задач со временем.
+// Для каждой задачи запоминается время начала на момент индексации, поэтому удаление не зависит от того,
+// было ли изменено время начала у самого объекта задачи.
+//-----------------------------------------------------------------------------------------------------------
+
+class PrioritizedTasksIndex {
+    static final int BLOCK_SIZE = 512; //Наибольшее количество записей в блоке
+
+    private final ArrayList<ArrayList<Entry>> blocks = new ArrayList<>(); //Блоки записей задач со временем
+    private final IdStore<Entry> undated = new IdStore<>(); //Задачи без времени начала
+    private final IdStore<Entry> entries = new IdStore<>(); //Все проиндексированные задачи по id
+    private int modCount = 0; //Счетчик изменений для обнаружения модификации во время обхода
+    private static final ArrayList<Entry> NO_ENTRIES = new ArrayList<>(0);
+
+    // Добавление задачи в индекс (ранее проиндексированная задача с тем же id заменяется)
+    void add(Task task) {
+        remove(task.getId());
+        Entry entry = new Entry(task);
+        entries.put(entry.id, entry);
+        if (entry.startTime == null) {
+            undated.put(entry.id, entry);
+        } else {
+            insert(entry);
+        }
+        modCount++;
+    }
+
+    // Пакетное добавление задач (пакетная загрузка): задачи со временем начала сортируются один раз,
+    // блоки формируются заново последовательным слиянием с уже проиндексированными задачами
+    void addAll(List<? extends Task> tasks) {
+        ArrayList<Entry> added = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            remove(task.getId());
+            Entry entry = new Entry(task);
+            entries.put(entry.id, entry);
+            if (entry.startTime == null) {
+                undated.put(entry.id, entry);
+            } else {
+                added.add(entry);
+            }
+        }
+        added.sort(null);
+
+        ArrayList<Entry> merged = new ArrayList<>(added.size());
+        int position = 0;
+        for (ArrayList<Entry> block : blocks) {
+            for (Entry entry : block) {
+                while ((position < added.size()) && (added.get(position).compareTo(entry) < 0)) {
+                    merged.add(added.get(position++));
+                }
+                merged.add(entry);
+            }
+        }
+        while (position < added.size()) {
+            merged.add(added.get(position++));
+        }
+
+        //Блоки заполняются наполовину, чтобы последующие добавления не приводили сразу к разделению блоков
+        blocks.clear();
+        for (int from = 0; from < merged.size(); from += BLOCK_SIZE / 2) {
+            blocks.add(new ArrayList<>(merged.subList(from, Math.min(from + BLOCK_SIZE / 2, merged.size()))));
+        }
+        modCount++;
+    }
+
+    // Удаление задачи из индекса. Возвращает true, если задача была проиндексирована
+    boolean remove(int id) {
+        Entry entry = entries.remove(id);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.startTime == null) {
+            undated.remove(id);
+        } else {
+            int blockIndex = blockOf(entry);
+            ArrayList<Entry> block = blocks.get(blockIndex);
+            block.remove(insertionPoint(block, entry));
+            if (block.isEmpty()) {
+                blocks.remove(blockIndex);
+            }
+        }
+        modCount++;
+        return true;
+    }
+
+    void clear() {
+        blocks.clear();
+        undated.clear();
+        entries.clear();
+        modCount++;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    // Все задачи в порядке приоритета
+    View view() {
+        return new View(null, null, true);
+    }
+
+    // Задачи, время начала которых лежит в полуинтервале [from, to). Незаданная граница (null) не ограничивает
+    // выборку. Задачи без времени начала включаются, только если не задана ни одна из границ
+    View view(LocalDateTime from, LocalDateTime to) {
+        return new View(from, to, (from == null) && (to == null));
+    }
+
+    // Поиск свободного времени по задачам индекса (для менеджера без валидатора, ведущего сведения
+    // о занятости). Задача занимает время [начало, начало + продолжительность). Обходятся все задачи,
+    // начинающиеся раньше to, т.к. задача, начавшаяся задолго до from, может продолжаться в периоде поиска
+    List<TimeSlot> findFreeSlots(Duration duration, LocalDateTime from, LocalDateTime to, int count) {
+        TimeChunks.checkFreeSlotsQuery(duration, from, to, count);
+        List<TimeSlot> slots = new ArrayList<>();
+        LocalDateTime freeStart = from; //Начало текущего свободного участка
+        for (ArrayList<Entry> block : blocks) {
+            for (Entry entry : block) {
+                if ((slots.size() >= count) || !entry.startTime.isBefore(to)) {
+                    return slots;
+                }
+                if (entry.startTime.isAfter(freeStart)) {
+                    addFreeSlot(slots, freeStart, entry.startTime, duration);
+                }
+                Duration taskDuration = entry.task.getDuration();
+                LocalDateTime endTime = (taskDuration != null) ? entry.startTime.plus(taskDuration) : entry.startTime;
+                if (endTime.isAfter(freeStart)) {
+                    freeStart = endTime;
+                }
+            }
+        }
+        if ((slots.size() < count) && freeStart.isBefore(to)) {
+            addFreeSlot(slots, freeStart, to, duration);
+        }
+        return slots;
+    }
+
+    private static void addFreeSlot(List<TimeSlot> slots, LocalDateTime start, LocalDateTime end,
+                                    Duration duration) {
+        if (!start.plus(duration).isAfter(end)) {
+            slots.add(new TimeSlot(start, end));
+        }
+    }
+
+    static long toEpochMinute(LocalDateTime moment) {
+        return Math.floorDiv(moment.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    // Вставка записи со временем начала. Переполненный блок делится пополам
+    private void insert(Entry entry) {
+        if (blocks.isEmpty()) {
+            ArrayList<Entry> block = new ArrayList<>();
+            block.add(entry);
+            blocks.add(block);
+            return;
+        }
+        int blockIndex = blockOf(entry);
+        ArrayList<Entry> block = blocks.get(blockIndex);
+        block.add(insertionPoint(block, entry), entry);
+        if (block.size() > BLOCK_SIZE) {
+            List<Entry> tail = block.subList(block.size() / 2, block.size());
+            blocks.add(blockIndex + 1, new ArrayList<>(tail));
+            tail.clear();
+        }
+    }
+
+    // Номер блока, в котором находится (или должна находиться) запись: последний блок, первая запись
+    // которого не превосходит заданную, либо первый блок
+    private int blockOf(Entry entry) {
+        int low = 1;
+        int high = blocks.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (blocks.get(middle).get(0).compareTo(entry) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low - 1;
+    }
+
+    // Двоичный поиск позиции записи в блоке с сохранением порядка (минута, время начала, id)
+    private static int insertionPoint(ArrayList<Entry> block, Entry entry) {
+        int low = 0;
+        int high = block.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (block.get(middle).compareTo(entry) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Позиция первой записи с временем начала не ранее from: {номер блока, позиция в блоке}
+    private int[] lowerBound(LocalDateTime from) {
+        long minute = toEpochMinute(from);
+        int low = 0;
+        int high = blocks.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            ArrayList<Entry> block = blocks.get(middle);
+            if (block.get(block.size() - 1).isBefore(minute, from)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (low == blocks.size()) {
+            return new int[]{low, 0};
+        }
+        ArrayList<Entry> block = blocks.get(low);
+        int position = 0;
+        int end = block.size();
+        while (position < end) {
+            int middle = (position + end) >>> 1;
+            if (block.get(middle).isBefore(minute, from)) {
+                position = middle + 1;
+            } else {
+                end = middle;
+            }
+        }
+        return new int[]{low, position};
+    }
+
+    // Запись индекса: задача и ее время начала на момент индексации
+    private static class Entry implements Comparable<Entry> {
+        final Task task;
+        final int id;
+        final LocalDateTime startTime;
+        final long minute;
+
+        Entry(Task task) {
+            this.task = task;
+            this.id = task.getId();
+            this.startTime = task.getStartTime();
+            this.minute = (startTime == null) ? 0 : toEpochMinute(startTime);
+        }
+
+        // Начинается ли задача раньше заданного момента (minute - минута этого момента)
+        boolean isBefore(long minute, LocalDateTime moment) {
+            return (this.minute != minute) ? (this.minute < minute) : startTime.isBefore(moment);
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (minute != other.minute) {
+                return Long.compare(minute, other.minute);
+            }
+            int result = startTime.compareTo(other.startTime);
+            return (result != 0) ? result : Integer.compare(id, other.id);
+        }
+    }
+
+    //======================================================================================================
+    // Выборка из индекса для обхода. Выборка не копирует записи: ее следует обходить, пока индекс не
+    // изменяется (изменение индекса во время обхода приводит к ConcurrentModificationException).
+    // Результат, передаваемый за пределы менеджера, копируется методами toList и page.
+    //------------------------------------------------------------------------------------------------------
+    class View implements Iterable<Task> {
+        private final LocalDateTime from;
+        private final LocalDateTime to;
+        private final boolean withUndated;
+
+        private View(LocalDateTime from, LocalDateTime to, boolean withUndated) {
+            this.from = from;
+            this.to = to;
+            this.withUndated = withUndated;
+        }
+
+        // Копия выборки
+        ArrayList<Task> toList() {
+            ArrayList<Task> result = new ArrayList<>(((from == null) && (to == null)) ? entries.size() : 16);
+            for (Task task : this) {
+                result.add(task);
+            }
+            return result;
+        }
+
+        // Страница выборки: не более limit задач, начиная с позиции offset
+        ArrayList<Task> page(int offset, int limit) {
+            if ((offset < 0) || (limit < 0)) {
+                throw new IllegalArgumentException("Недопустимые параметры страницы: offset=" + offset
+                        + ", limit=" + limit);
+            }
+            ArrayList<Task> result = new ArrayList<>(Math.min(limit, 64));
+            Iterator<Task> iterator = iterator();
+            for (int i = 0; i < offset && iterator.hasNext(); i++) {
+                iterator.next();
+            }
+            while ((result.size() < limit) && iterator.hasNext()) {
+                result.add(iterator.next());
+            }
+            return result;
+        }
+
+        @Override
+        public Iterator<Task> iterator() {
+            int[] start = (from == null) ? new int[]{0, 0} : lowerBound(from);
+            long toMinute = (to == null) ? 0 : toEpochMinute(to);
+            return new Iterator<>() {
+                private final int expectedModCount = modCount;
+                private int blockIndex = start[0];
+                private ArrayList<Entry> block = (blockIndex < blocks.size()) ? blocks.get(blockIndex) : NO_ENTRIES;
+                private int position = start[1];
+                private Iterator<Entry> undatedIterator = null;
+                private Entry next = advance();
+
+                // Поиск очередной записи выборки
+                private Entry advance() {
+                    if (undatedIterator == null) {
+                        while ((position == block.size()) && (blockIndex < blocks.size() - 1)) {
+                            block = blocks.get(++blockIndex);
+                            position = 0;
+                        }
+                        if (position < block.size()) {
+                            Entry entry = block.get(position++);
+                            if ((to == null) || entry.isBefore(toMinute, to)) {
+                                return entry;
+                            }
+                            return null; //Записи упорядочены, остальные начинаются не раньше to
+                        }
+                        if (!withUndated) {
+                            return null;
+                        }
+                        undatedIterator = undated.iterator();
+                    }
+                    return undatedIterator.hasNext() ? undatedIterator.next() : null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Task next() {
+                    if (modCount != expectedModCount) {
+                        throw new ConcurrentModificationException();
+                    }
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    Task result = next.task;
+                    next = advance();
+                    return result;
+                }
+            };
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package service;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -37,7 +39,8 @@ public interface TaskManager {
     // Удаление эпика
     boolean deleteEpic(Integer id);
 
-    // Импорт задач без генерации идентификатора
+    // Импорт задач без генерации идентификатора и без проверки валидаторами. Задача с имеющимся
+    // идентификатором заменяется, как при обновлении
     Task importTask (Task task);
     Task importEpic (Epic epic);
     Task importSubtask (Subtask subtask);
@@ -63,6 +66,9 @@ public interface TaskManager {
     // Получить подзадачу (Subtask) из хранилища по идентификатору
     Subtask getSubtask(Integer id);
 
+    // Получить задачу/эпик/подзадачу по идентификатору (обращение однократно вносится в историю)
+    Task find(int id);
+
     // Получить список задач
     List<Task> getTasks();
 
@@ -74,8 +80,22 @@ public interface TaskManager {
     List<Subtask> getEpicSubtasks(Epic epic);
     Epic getEpicOfSubtask(Subtask subtask);
 
+    // Получить задачи/подзадачи в порядке приоритета. Результаты getPrioritizedTasks - копии, не меняющиеся
+    // при последующих изменениях менеджера
     public List<Task> getPrioritizedTasks();
 
+    // Получить задачи/подзадачи в порядке приоритета, время начала которых лежит в полуинтервале [from, to).
+    // Незаданная граница (null) не ограничивает выборку; задачи без времени начала попадают в выборку,
+    // только если не задана ни одна из границ
+    List<Task> getPrioritizedTasks(LocalDateTime from, LocalDateTime to);
+
+    // Получить страницу выборки getPrioritizedTasks(from, to): не более limit задач начиная с позиции offset
+    List<Task> getPrioritizedTasks(LocalDateTime from, LocalDateTime to, int offset, int limit);
+
+    // Найти не более count самых ранних свободных периодов в пределах [from, to), в которые можно разместить
+    // задачу продолжительностью duration (по сведениям о занятости валидатора пересечений во времени)
+    List<TimeSlot> findFreeSlots(Duration duration, LocalDateTime from, LocalDateTime to, int count);
+
     // Получить историю
     List<Task> getHistory();
 
@@ -10,6 +10,13 @@ public interface TaskValidator {
     //Метод, вызываемый в случае добавления задачи в менеджер
     void onAddTask(Task task);
 
+    //Метод, вызываемый в случае добавления набора задач в менеджер (пакетная загрузка)
+    default void onAddTasks(List<Task> tasks) {
+        for (Task task : tasks) {
+            onAddTask(task);
+        }
+    }
+
     //Метод, вызываемый в случае удаления отдельной задачи из менеджера
     void onRemoveTask (Task task);
 
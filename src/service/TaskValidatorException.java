@@ -1,8 +1,70 @@
 package service;
 
+import model.Task;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
 public class TaskValidatorException extends RuntimeException {
+    //Сведения о пересечении задач во времени (снимок на момент валидации)
+    private final String taskType; //Тип задачи, не прошедшей валидацию
+    private final Integer taskId;
+    private final LocalDateTime startTime;
+    private final Duration duration;
+    private final String conflictingTaskType; //Тип задачи, с которой обнаружено пересечение
+    private final Integer conflictingTaskId;
+    private final LocalDateTime conflictStart; //Период времени, занятый задачей, с которой обнаружено пересечение
+    private final LocalDateTime conflictEnd;
 
     public TaskValidatorException(final String message) {
         super(message);
+        this.taskType = null;
+        this.taskId = null;
+        this.startTime = null;
+        this.duration = null;
+        this.conflictingTaskType = null;
+        this.conflictingTaskId = null;
+        this.conflictStart = null;
+        this.conflictEnd = null;
+    }
+
+    // Исключение о пересечении задач во времени. Текст сообщения формируется только при обращении к нему
+    public TaskValidatorException(final Task task, final Task conflictingTask) {
+        super();
+        this.taskType = task.getClass().getSimpleName();
+        this.taskId = task.getId();
+        this.startTime = task.getStartTime();
+        this.duration = task.getDuration();
+        this.conflictingTaskType = conflictingTask.getClass().getSimpleName();
+        this.conflictingTaskId = conflictingTask.getId();
+        this.conflictStart = conflictingTask.getStartTime();
+        //Задача без продолжительности заканчивается в момент начала
+        this.conflictEnd = ((conflictStart == null) || (conflictingTask.getDuration() == null)) ? conflictStart
+                : conflictingTask.getEndTime();
+    }
+
+    // Идентификатор задачи, с которой обнаружено пересечение (null, если сведения отсутствуют)
+    public Integer getConflictingTaskId() {
+        return conflictingTaskId;
+    }
+
+    // Время начала задачи, с которой обнаружено пересечение
+    public LocalDateTime getConflictStart() {
+        return conflictStart;
+    }
+
+    // Время окончания задачи, с которой обнаружено пересечение
+    public LocalDateTime getConflictEnd() {
+        return conflictEnd;
+    }
+
+    @Override
+    public String getMessage() {
+        if (conflictingTaskId == null) {
+            return super.getMessage();
+        }
+        return taskType + " id=" + taskId + " startTime=" + startTime + " duration=" + duration
+                + " имеет пересечения c " + conflictingTaskType + " id=" + conflictingTaskId
+                + " [" + conflictStart + " - " + conflictEnd + ")";
     }
 }
@@ -0,0 +1,100 @@
+package service;
+
+import model.Task;
+import model.TimeSlot;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+//==========================================================================================================
+// Служебные расчеты чанков времени для валидаторов пересечений.
+// Чанк описывается номером от начала эпохи (1970-01-01T00:00). Продолжительность чанка должна делить час
+// без остатка, поэтому границы чанков совпадают с границами, отсчитанными от начала каждого часа.
+// Задача занимает чанки [floorChunk(начало), ceilChunk(окончание)); задача без продолжительности
+// заканчивается в момент начала.
+//-----------------------------------------------------------------------------------------------------------
+
+final class TimeChunks {
+    static final Duration DEFAULT_CHUNK_DURATION = Duration.ofMinutes(5); //Продолжительность чанка по умолчанию
+
+    private TimeChunks() {
+    }
+
+    // Проверка продолжительности чанка. Возвращает продолжительность в секундах
+    static long toChunkSeconds(Duration chunkDuration) {
+        if ((chunkDuration == null) || (chunkDuration.getSeconds() <= 0) || (chunkDuration.getNano() != 0)
+                || (Duration.ofHours(1).getSeconds() % chunkDuration.getSeconds() != 0)) {
+            throw new IllegalArgumentException("Продолжительность чанка должна делить час без остатка: "
+                    + chunkDuration);
+        }
+        return chunkDuration.getSeconds();
+    }
+
+    // Номер чанка, к которому относится момент времени
+    static long floorChunk(LocalDateTime moment, long chunkSeconds) {
+        return Math.floorDiv(moment.toEpochSecond(ZoneOffset.UTC), chunkSeconds);
+    }
+
+    // Номер первого чанка, начинающегося не раньше момента времени
+    static long ceilChunk(LocalDateTime moment, long chunkSeconds) {
+        long seconds = moment.toEpochSecond(ZoneOffset.UTC);
+        long chunk = Math.floorDiv(seconds, chunkSeconds);
+        if ((Math.floorMod(seconds, chunkSeconds) != 0) || (moment.getNano() != 0)) {
+            chunk++;
+        }
+        return chunk;
+    }
+
+    // Первый чанк задачи (время начала задачи должно быть задано)
+    static long firstChunk(Task task, long chunkSeconds) {
+        return floorChunk(task.getStartTime(), chunkSeconds);
+    }
+
+    // Чанк, следующий за последним чанком задачи (время начала задачи должно быть задано)
+    static long endChunk(Task task, long chunkSeconds) {
+        LocalDateTime endTime = (task.getDuration() != null) ? task.getEndTime() : task.getStartTime();
+        return ceilChunk(endTime, chunkSeconds);
+    }
+
+    // Момент начала чанка
+    static LocalDateTime toMoment(long chunk, long chunkSeconds) {
+        return LocalDateTime.ofEpochSecond(chunk * chunkSeconds, 0, ZoneOffset.UTC);
+    }
+
+    // Проверка параметров поиска свободного времени
+    static void checkFreeSlotsQuery(Duration duration, LocalDateTime from, LocalDateTime to, int count) {
+        if ((duration == null) || duration.isNegative() || duration.isZero()) {
+            throw new IllegalArgumentException("Продолжительность должна быть положительной: " + duration);
+        }
+        if ((from == null) || (to == null) || !from.isBefore(to)) {
+            throw new IllegalArgumentException("Некорректный период поиска: [" + from + ", " + to + ")");
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException("Недопустимое количество периодов: " + count);
+        }
+    }
+
+    // Добавление свободного периода по свободным чанкам [first, end) с учетом границ поиска [from, to).
+    // Период добавляется, если в него помещается задача заданной продолжительности
+    static void addFreeSlot(List<TimeSlot> slots, long first, long end, long chunkSeconds,
+                            Duration duration, LocalDateTime from, LocalDateTime to) {
+        LocalDateTime start = toMoment(first, chunkSeconds);
+        if (start.isBefore(from)) {
+            start = from;
+        }
+        LocalDateTime finish = toMoment(end, chunkSeconds);
+        if (finish.isAfter(to)) {
+            finish = to;
+        }
+        if (!start.plus(duration).isAfter(finish)) {
+            slots.add(new TimeSlot(start, finish));
+        }
+    }
+
+    // Проверка, что занятый чанк/интервал принадлежит самой проверяемой задаче (обновление задачи)
+    static boolean isSameTask(Task occupant, Task task) {
+        return occupant.getId() == task.getId() && (occupant.getClass() == task.getClass());
+    }
+}
@@ -2,54 +2,45 @@ package service;
 
 import model.Task;
 import model.Epic;
+import model.TimeSlot;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 //==========================================================================================================
 // Валидация задачи: недопустимость пересечения с другими задачами во времени.
-// Для валидации используется создание набора чанков - периодов времени, продолжительность которых определена
-// константой TIMECHUNK_DURATION (в минутах). Чанк описывается переменной, указывающей на начало времени чанка.
-// Период, определяемый TIMECHUNK_DURATION, должен делить час без остатка (1-6, 10, 12 и т.д.)
+// Для валидации используется создание набора чанков - периодов времени, продолжительность которых задается
+// при создании валидатора (по умолчанию 5 минут). Чанк описывается номером от начала эпохи (long), занятые
+// чанки хранятся в таблице "номер чанка -> id задачи" без упаковки ключей и значений.
+// Продолжительность чанка должна делить час без остатка (1-6, 10, 12, 15, 30 минут и т.д.)
 //-----------------------------------------------------------------------------------------------------------
 
-public class TimeIntersectionsValidator implements TaskValidator {
-    final private Duration TIMECHUNK_DURATION = Duration.ofMinutes(5); //Продолжительность чанка
-    final private HashMap<LocalDateTime, Task> timeChunks = new HashMap<>(); //Хранилище чанков
-    final private HashMap<Integer, List<LocalDateTime>> timeChunksByTaskId = new HashMap<>(); //Храним чанки конкретных задач
+public class TimeIntersectionsValidator implements TaskValidator, FreeSlotsFinder {
+    final private long chunkSeconds; //Продолжительность чанка в секундах
+    final private LongIntHashMap timeChunks = new LongIntHashMap(); //Хранилище чанков: номер чанка -> id задачи
+    final private IdStore<ChunkRange> chunksByTaskId = new IdStore<>(); //Храним чанки конкретных задач
 
-    //Рассчитываем перечень чанков, относящихся к задаче
-    private List<LocalDateTime> calculateChunksForTask(Task task) {
-        List<LocalDateTime> chunks = new ArrayList<>();
-        LocalDateTime chunk = calculateChunkForMoment(task.getStartTime());
-        LocalDateTime endTime = task.getStartTime();
-
-        if (task.getDuration() != null) {
-            endTime = task.getEndTime();
-        }
-        endTime = endTime;
+    public TimeIntersectionsValidator() {
+        this(TimeChunks.DEFAULT_CHUNK_DURATION);
+    }
 
-        while (chunk.isBefore(endTime)) {
-            chunks.add(chunk);
-            chunk = chunk.plus(TIMECHUNK_DURATION);
-        }
-        return chunks;
+    public TimeIntersectionsValidator(Duration chunkDuration) {
+        this.chunkSeconds = TimeChunks.toChunkSeconds(chunkDuration);
     }
 
     private void removeTaskFromValidator(Task task) {
         if (task.getClass() == Epic.class) {
             return; //Временные параметры эпика расчитываюься от сабтасков, поэтому его не обрабатываем
         }
-        if (timeChunksByTaskId.containsKey(task.getId())) {
-            List<LocalDateTime> chunks = timeChunksByTaskId.get(task.getId());
-            for (LocalDateTime chunk : chunks) {
-                timeChunks.remove(chunk);
+        ChunkRange range = chunksByTaskId.remove(task.getId());
+        if (range != null) {
+            for (long chunk = range.first; chunk < range.end; chunk++) {
+                if (timeChunks.get(chunk) == task.getId()) {
+                    timeChunks.remove(chunk);
+                }
             }
-            timeChunksByTaskId.remove(task.getId());
         }
     }
 
@@ -57,22 +48,21 @@ public class TimeIntersectionsValidator implements TaskValidator {
         if (task.getClass() == Epic.class) {
             return; //Временные параметры эпика расчитываюься от сабтасков, поэтому его не обрабатываем
         }
+        //Удаляем ранее внесенные сведения за чанках задачи (при обновлении могут измениться)
+        removeTaskFromValidator(task);
         if (task.getStartTime() == null) {
             return; //Если время не задано, нечего добавлять, задача не занимает чанков
         }
-        //Удаляем ранее внесенные сведения за чанках задачи (при обновлении могут измениться)
-        removeTaskFromValidator(task);
-
-        //Составляем список чанков задачи
-        List<LocalDateTime> chunks = calculateChunksForTask(task);
 
         //Занимаем чанки
-        for (LocalDateTime chunk : chunks) {
-            timeChunks.put(chunk, task);
+        ChunkRange range = new ChunkRange(task, TimeChunks.firstChunk(task, chunkSeconds),
+                TimeChunks.endChunk(task, chunkSeconds));
+        for (long chunk = range.first; chunk < range.end; chunk++) {
+            timeChunks.put(chunk, task.getId());
         }
 
         //Привязываем чанки к идентификатору задачи
-        timeChunksByTaskId.put(task.getId(), chunks);
+        chunksByTaskId.put(task.getId(), range);
     }
 
     @Override
@@ -80,6 +70,22 @@ public class TimeIntersectionsValidator implements TaskValidator {
         addTaskToValidator(task);
     }
 
+    // Пакетное добавление: таблица чанков заранее увеличивается до нужного размера, затем чанки задач
+    // занимаются за один проход
+    @Override
+    public void onAddTasks(List<Task> tasks) {
+        long chunksCount = timeChunks.size();
+        for (Task task : tasks) {
+            if ((task.getClass() != Epic.class) && (task.getStartTime() != null)) {
+                chunksCount += TimeChunks.endChunk(task, chunkSeconds) - TimeChunks.firstChunk(task, chunkSeconds);
+            }
+        }
+        timeChunks.ensureCapacity((int) Math.min(chunksCount, Integer.MAX_VALUE));
+        for (Task task : tasks) {
+            addTaskToValidator(task);
+        }
+    }
+
     @Override
     public void onRemoveTask(Task task) {
         removeTaskFromValidator(task);
@@ -102,36 +108,59 @@ public class TimeIntersectionsValidator implements TaskValidator {
             return; //Временные параметры эпика расчитываюься от сабтасков, поэтому его не обрабатываем
         }
 
-        if (task.getStartTime() == null) {
-            return; //Если время не задано, задача валидна т.к. не имеет пересечений
-        }
-
-        //Составляем список чанков задачи
-        List<LocalDateTime> chunks = calculateChunksForTask(task);
+        long first = TimeChunks.firstChunk(task, chunkSeconds);
+        long end = TimeChunks.endChunk(task, chunkSeconds);
         //Проверяем наличие пересечений чанков с уже занятыми
-        for (LocalDateTime chunk : chunks) {
-            if (timeChunks.containsKey(chunk)) {
-                Task intersectionTask = timeChunks.get(chunk);
-
-                throw new TaskValidatorException(task.getClass().getSimpleName()
-                        + " id=" + task.getId() + " startTime=" + task.getStartTime()
-                        + " duration=" + task.getDuration() + "\n"
-                        + " имеет пересечения c "
-                        + intersectionTask.getClass().getSimpleName()
-                        + " id=" + intersectionTask.getId()
-                        + " startTime=" + intersectionTask.getStartTime()
-                        + " duration=" + intersectionTask.getDuration() + "\n"
-                        + "chunk - [" + chunks + ']');
+        for (long chunk = first; chunk < end; chunk++) {
+            int intersectionTaskId = timeChunks.get(chunk);
+            if (intersectionTaskId == LongIntHashMap.NO_VALUE) {
+                continue;
+            }
+            Task intersectionTask = chunksByTaskId.get(intersectionTaskId).task;
+            //Чанки, занятые самой задачей (при обновлении), пересечением не считаются
+            if (!TimeChunks.isSameTask(intersectionTask, task)) {
+                throw new TaskValidatorException(task, intersectionTask);
             }
         }
     }
 
-    private LocalDateTime calculateChunkForMoment(LocalDateTime moment) {
-        //Находим начало часа события
-        LocalDateTime momentHour = moment.truncatedTo(ChronoUnit.HOURS);
-        //Находим номер куска часа к которому относится событие исходя из заданных периодов кусков
-        long hourChunk = Duration.between(momentHour, moment).dividedBy(TIMECHUNK_DURATION);
-        return momentHour.plus(TIMECHUNK_DURATION.multipliedBy(hourChunk));
+    // Поиск свободного времени обходом чанков периода. Занятые задачами участки пропускаются целиком
+    @Override
+    public List<TimeSlot> findFreeSlots(Duration duration, LocalDateTime from, LocalDateTime to, int count) {
+        TimeChunks.checkFreeSlotsQuery(duration, from, to, count);
+        List<TimeSlot> slots = new ArrayList<>();
+        long end = TimeChunks.ceilChunk(to, chunkSeconds);
+        long freeFirst = TimeChunks.floorChunk(from, chunkSeconds); //Начало текущего свободного участка
+        long chunk = freeFirst;
+        while ((chunk < end) && (slots.size() < count)) {
+            int taskId = timeChunks.get(chunk);
+            if (taskId == LongIntHashMap.NO_VALUE) {
+                chunk++;
+                continue;
+            }
+            if (freeFirst < chunk) {
+                TimeChunks.addFreeSlot(slots, freeFirst, chunk, chunkSeconds, duration, from, to);
+            }
+            //Пропускаем чанки занимающей задачи
+            chunk = Math.max(chunk + 1, chunksByTaskId.get(taskId).end);
+            freeFirst = chunk;
+        }
+        if ((freeFirst < end) && (slots.size() < count)) {
+            TimeChunks.addFreeSlot(slots, freeFirst, end, chunkSeconds, duration, from, to);
+        }
+        return slots;
     }
 
+    // Чанки задачи [first, end) и сама задача (для сведений о пересечении)
+    private static class ChunkRange {
+        final Task task;
+        final long first;
+        final long end;
+
+        ChunkRange(Task task, long first, long end) {
+            this.task = task;
+            this.first = first;
+            this.end = end;
+        }
+    }
 }
@@ -3,14 +3,20 @@ package testing;
 import model.Epic;
 import model.Subtask;
 import model.Task;
+import model.TaskStatus;
 
+import service.BinarySnapshot;
 import service.FileBackedTasksManager;
+import service.ManagerSaveException;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.jupiter.api.BeforeEach;
@@ -145,6 +151,7 @@ class FileBackedTasksManagerTest extends TaskManagerTest<FileBackedTasksManager>
 
         //Создаем набор задач и историю
         generateSomeTasksAndHistory("saveTasks");
+        taskManager.save(); //Обращения к задачам дописываются в журнал истории, сохраняем снимок с историей
 
         //Проверяем результат
         assertTrue(file.exists(), "Файл не был создан.");
@@ -209,4 +216,385 @@ class FileBackedTasksManagerTest extends TaskManagerTest<FileBackedTasksManager>
             throw new RuntimeException(e);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void writeBehindFlush() throws IOException {
+        File file = Files.createTempFile("kanban_write_behind_test", ".csv").toFile();
+        file.deleteOnExit();
+        taskManager = new FileBackedTasksManager(file);
+        taskManager.enableWriteBehind(Duration.ofHours(1), 1000);
+
+        //Изменения накапливаются без записи файла
+        generateSomeTasksAndHistory("writeBehindFlush");
+        assertTrue(taskManager.getPendingOps() > 0, "Нет несохраненных изменений.");
+        assertEquals(0, file.length(), "Файл записан до сохранения.");
+
+        //Все изменения сохраняются одной записью
+        taskManager.flush();
+        assertEquals(0, taskManager.getPendingOps(), "Остались несохраненные изменения.");
+
+        FileBackedTasksManager restoredManager = FileBackedTasksManager.loadFromFile(file);
+        assertEquals(taskManager.getTasks(), restoredManager.getTasks(), "Задачи не совпадают.");
+        assertEquals(taskManager.getSubtasks(), restoredManager.getSubtasks(), "Подзадачи не совпадают.");
+        assertEquals(taskManager.getHistory(), restoredManager.getHistory(), "История не совпадает.");
+
+        //При отключении режима сохраняются оставшиеся изменения, далее сохранение синхронное
+        taskManager.clearTasks();
+        taskManager.disableWriteBehind();
+        assertFalse(taskManager.isWriteBehindEnabled(), "Режим отложенного сохранения не отключен.");
+        assertEquals(0, FileBackedTasksManager.loadFromFile(file).getTasks().size(), "Изменения не сохранены.");
+        taskManager.clearEpics();
+        assertEquals(0, FileBackedTasksManager.loadFromFile(file).getEpics().size(), "Изменения не сохранены.");
+    }
+
+    @Test
+    void writeBehindBackgroundSave() throws IOException, InterruptedException {
+        File file = Files.createTempFile("kanban_write_behind_test", ".csv").toFile();
+        file.deleteOnExit();
+        taskManager = new FileBackedTasksManager(file);
+        taskManager.enableWriteBehind(Duration.ofMillis(50), 5);
+
+        List<Task> tasks = generateTasksForTest("writeBehindBackgroundSave", 12);
+        for (Task task : tasks) {
+            taskManager.appendTask(task);
+        }
+
+        //Фоновое сохранение выполняется по количеству изменений и по истечении задержки
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((taskManager.getPendingOps() > 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, taskManager.getPendingOps(), "Изменения не сохранены в фоне.");
+        assertEquals(tasks.size(), FileBackedTasksManager.loadFromFile(file).getTasks().size(),
+                "Неверное количество задач.");
+        taskManager.disableWriteBehind();
+    }
+
+    @Test
+    void writeBehindBackgroundFailureReported() throws IOException, InterruptedException {
+        //Каталога файла менеджера нет: фоновое сохранение завершается ошибкой
+        File directory = new File(Files.createTempDirectory("kanban_write_behind_test").toFile(), "data");
+        File file = new File(directory, "kanban.csv");
+        taskManager = new FileBackedTasksManager(file);
+        taskManager.enableWriteBehind(Duration.ofMillis(20), 1);
+
+        Task task = taskManager.appendTask(generateTasksForTest("writeBehindBackgroundFailureReported", 1).get(0));
+        Thread.sleep(300);
+        assertThrows(ManagerSaveException.class, () -> taskManager.flush(),
+                "Ошибка фонового сохранения не передана.");
+        assertTrue(taskManager.getPendingOps() > 0, "Несохраненные изменения потеряны.");
+
+        //Фоновое сохранение повторяется и после устранения причины ошибки выполняется
+        assertTrue(directory.mkdir(), "Каталог не создан.");
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((taskManager.getPendingOps() > 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, taskManager.getPendingOps(), "Изменения не сохранены в фоне.");
+        taskManager.flush();
+        assertEquals(List.of(task), FileBackedTasksManager.loadFromFile(file).getTasks(),
+                "Задачи не совпадают.");
+        taskManager.disableWriteBehind();
+        file.delete();
+        directory.delete();
+        directory.getParentFile().delete();
+    }
+
+    @Test
+    void historyLogWithoutSnapshotRewrite() throws IOException {
+        File file = Files.createTempFile("kanban_history_log_test", ".csv").toFile();
+        File historyLogFile = new File(file.getPath() + ".history");
+        file.deleteOnExit();
+        historyLogFile.deleteOnExit();
+        taskManager = new FileBackedTasksManager(file);
+
+        List<Integer> ids = generateSomeTasksAndHistory("historyLogWithoutSnapshotRewrite");
+        String snapshot = Files.readString(file.toPath());
+
+        //Обращения к задачам не перезаписывают файл менеджера
+        taskManager.getTask(ids.get(2));
+        taskManager.getTask(ids.get(0));
+        assertEquals(snapshot, Files.readString(file.toPath()), "Файл менеджера перезаписан при чтении.");
+        assertTrue(historyLogFile.exists(), "Журнал истории не создан.");
+
+        //Порядок истории восстанавливается по снимку и журналу
+        FileBackedTasksManager restoredManager = FileBackedTasksManager.loadFromFile(file);
+        assertEquals(taskManager.getHistory(), restoredManager.getHistory(), "История не совпадает.");
+
+        //Сохранение снимка удаляет журнал истории
+        taskManager.save();
+        assertFalse(historyLogFile.exists(), "Журнал истории не удален.");
+        assertEquals(taskManager.getHistory(), FileBackedTasksManager.loadFromFile(file).getHistory(),
+                "История не совпадает.");
+    }
+
+    @Test
+    void historyLogOfOtherSnapshotIgnored() throws IOException {
+        File file = Files.createTempFile("kanban_history_log_test", ".csv").toFile();
+        File historyLogFile = new File(file.getPath() + ".history");
+        file.deleteOnExit();
+        historyLogFile.deleteOnExit();
+        taskManager = new FileBackedTasksManager(file);
+
+        List<Integer> ids = generateSomeTasksAndHistory("historyLogOfOtherSnapshotIgnored");
+        taskManager.getTask(ids.get(3));
+        assertTrue(historyLogFile.exists(), "Журнал истории не создан.");
+
+        //Файл менеджера заменен без журнала истории (например, восстановлен из копии)
+        File validFile = new File("testfiles/valid_tasks_file.csv");
+        copy(validFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        List<Task> history = FileBackedTasksManager.loadFromFile(validFile).getHistory();
+
+        FileBackedTasksManager restoredManager = FileBackedTasksManager.loadFromFile(file);
+        assertEquals(history, restoredManager.getHistory(), "Применен журнал истории другого снимка.");
+        assertFalse(historyLogFile.exists(), "Журнал истории другого снимка не удален.");
+    }
+
+    @Test
+    void historyLogAppliedByAllLoaders() throws IOException {
+        File file = Files.createTempFile("kanban_history_log_test", ".csv").toFile();
+        File historyLogFile = new File(file.getPath() + ".history");
+        file.deleteOnExit();
+        historyLogFile.deleteOnExit();
+        taskManager = new FileBackedTasksManager(file);
+
+        //Снимок из нескольких участков параллельной загрузки: отметка снимка собирается из сумм участков
+        final int COUNT = 60_000;
+        taskManager.beginBulkLoad();
+        for (int i = 1; i <= COUNT; i++) {
+            taskManager.importTask(new Task("Задача " + i, "Описание задачи " + i, TaskStatus.NEW, i));
+        }
+        taskManager.endBulkLoad();
+        taskManager.getTask(COUNT);
+        taskManager.save();
+        taskManager.getTask(7);
+        taskManager.getTask(COUNT / 2);
+        assertTrue(historyLogFile.exists(), "Журнал истории не создан.");
+
+        //Отметка снимка считается при загрузке любым способом и совпадает с отметкой журнала истории
+        List<Task> history = taskManager.getHistory();
+        assertEquals(history, FileBackedTasksManager.loadFromFile(file).getHistory(), "История не совпадает.");
+        assertEquals(history, FileBackedTasksManager.loadFromFileMapped(file).getHistory(),
+                "История не совпадает.");
+        assertEquals(history, FileBackedTasksManager.loadFromFileParallel(file).getHistory(),
+                "История не совпадает.");
+        assertTrue(historyLogFile.exists(), "Журнал истории удален при загрузке.");
+    }
+
+    @Test
+    void saveAndLoadSpecialCharacters() throws IOException {
+        File file = Files.createTempFile("kanban_csv_test", ".csv").toFile();
+        file.deleteOnExit();
+        taskManager = new FileBackedTasksManager(file);
+
+        //Значения с разделителями и кавычками в разных позициях
+        String[] names = {"\"", "\"\"", ",", "\",\"", "a,\"b\"", "x\"", "\"x", " ", "Задача \"1\",,\"2\""};
+        for (String name : names) {
+            taskManager.appendTask(new Task(name, name + "\",\""));
+        }
+        Epic epic = taskManager.appendEpic(new Epic("\"Эпик\"", ""));
+        taskManager.appendSubtask(new Subtask(epic, "", "\",,\""));
+
+        FileBackedTasksManager restoredManager = FileBackedTasksManager.loadFromFile(file);
+        assertEquals(taskManager.getTasks(), restoredManager.getTasks(), "Задачи не совпадают.");
+        assertEquals(taskManager.getEpics(), restoredManager.getEpics(), "Эпики не совпадают.");
+        assertEquals(taskManager.getSubtasks(), restoredManager.getSubtasks(), "Подзадачи не совпадают.");
+    }
+
+    @Test
+    void failedSaveKeepsPreviousFile() throws IOException {
+        File file = Files.createTempFile("kanban_atomic_save_test", ".csv").toFile();
+        File tempFile = new File(file.getPath() + ".tmp");
+        file.deleteOnExit();
+        taskManager = new FileBackedTasksManager(file);
+        generateSomeTasksAndHistory("failedSaveKeepsPreviousFile");
+        taskManager.save();
+        String snapshot = Files.readString(file.toPath());
+
+        //Временный файл записать невозможно (на его месте директория)
+        assertTrue(tempFile.mkdir(), "Не удалось создать директорию.");
+        try {
+            assertThrows(ManagerSaveException.class, () -> taskManager.clearTasks(), "Ошибка записи не обработана.");
+            assertEquals(snapshot, Files.readString(file.toPath()), "Файл менеджера изменен при ошибке записи.");
+        } finally {
+            tempFile.delete();
+        }
+
+        //После устранения ошибки файл менеджера заменяется целиком
+        taskManager.save();
+        assertEquals(0, FileBackedTasksManager.loadFromFile(file).getTasks().size(), "Неверное количество задач.");
+        assertFalse(tempFile.exists(), "Временный файл не удален.");
+    }
+
+    @Test
+    void saveAndLoadBinarySnapshot() throws IOException {
+        File file = Files.createTempFile("kanban_binary_test", ".csv").toFile();
+        File binaryFile = Files.createTempFile("kanban_binary_test", ".bin").toFile();
+        File convertedFile = Files.createTempFile("kanban_binary_test", ".csv").toFile();
+        file.deleteOnExit();
+        binaryFile.deleteOnExit();
+        convertedFile.deleteOnExit();
+        taskManager = new FileBackedTasksManager(file);
+        generateSomeTasksAndHistory("saveAndLoadBinarySnapshot");
+        Task task = taskManager.getTasks().get(0);
+        task.setStartTime(LocalDateTime.of(2023, 3, 6, 18, 20, 5, 123));
+        task.setDuration(Duration.ofSeconds(90, 5));
+        taskManager.updateTask(task);
+        Subtask subtask = taskManager.getSubtasks().get(0);
+        subtask.setStartTime(LocalDateTime.of(1969, 12, 31, 23, 0));
+        subtask.setDuration(Duration.ofMinutes(30));
+        taskManager.updateSubtask(subtask);
+        taskManager.appendTask(new Task("Задача \"1\", ё", ""));
+
+        //Загрузка двоичного снимка восстанавливает данные и историю
+        taskManager.saveBinary(binaryFile);
+        FileBackedTasksManager restoredManager = FileBackedTasksManager.loadFromBinary(binaryFile, file);
+        assertEquals(taskManager.getTasks(), restoredManager.getTasks(), "Задачи не совпадают.");
+        assertEquals(taskManager.getEpics(), restoredManager.getEpics(), "Эпики не совпадают.");
+        assertEquals(taskManager.getSubtasks(), restoredManager.getSubtasks(), "Подзадачи не совпадают.");
+        assertEquals(taskManager.getHistory(), restoredManager.getHistory(), "История не совпадает.");
+        assertEquals(taskManager.getPrioritizedTasks(), restoredManager.getPrioritizedTasks(),
+                "Приоритеты не совпадают.");
+
+        //Преобразование двоичного снимка в CSV и обратно
+        assertTrue(BinarySnapshot.isBinary(binaryFile), "Двоичный снимок не распознан.");
+        BinarySnapshot.convert(binaryFile, convertedFile);
+        assertFalse(BinarySnapshot.isBinary(convertedFile), "CSV распознан как двоичный снимок.");
+        taskManager.save();
+        assertEquals(Files.readString(file.toPath()), Files.readString(convertedFile.toPath()),
+                "Содержимое файлов отличается.");
+        BinarySnapshot.convert(convertedFile, binaryFile);
+        assertEquals(taskManager.getSubtasks(), FileBackedTasksManager.loadFromBinary(binaryFile, file).getSubtasks(),
+                "Подзадачи не совпадают.");
+
+        //Усеченный снимок не загружается
+        Files.write(binaryFile.toPath(), Arrays.copyOf(Files.readAllBytes(binaryFile.toPath()),
+                (int) binaryFile.length() - 1));
+        assertThrows(ManagerSaveException.class, () -> FileBackedTasksManager.loadFromBinary(binaryFile, file),
+                "Усеченный снимок загружен.");
+    }
+
+    @Test
+    void loadFromFileMapped() throws IOException {
+        File file = Files.createTempFile("kanban_mapped_test", ".csv").toFile();
+        file.deleteOnExit();
+        taskManager = new FileBackedTasksManager(file);
+        generateSomeTasksAndHistory("loadFromFileMapped");
+
+        //Время и продолжительность в разных формах записи
+        LocalDateTime[] startTimes = {LocalDateTime.of(2023, 3, 6, 18, 20), LocalDateTime.of(2023, 3, 6, 19, 0, 5),
+                LocalDateTime.of(2023, 3, 6, 20, 0, 5, 120_000_000), LocalDateTime.of(2023, 3, 6, 21, 0, 0, 7),
+                LocalDateTime.of(-5, 1, 1, 0, 0), LocalDateTime.of(12023, 1, 1, 0, 0)};
+        Duration[] durations = {Duration.ofMinutes(5), Duration.ofMinutes(30).plusSeconds(7),
+                Duration.ofMillis(1500), Duration.ofNanos(1), Duration.ofHours(26), Duration.ofMinutes(-3)};
+        List<Task> tasks = taskManager.getTasks();
+        for (int i = 0; i < startTimes.length; i++) {
+            Task task = tasks.get(i);
+            task.setStartTime(startTimes[i]);
+            task.setDuration(durations[i]);
+            task.setName("\"" + task.getName() + "\", ё");
+            taskManager.updateTask(task);
+        }
+        taskManager.getTask(tasks.get(1).getId());
+        taskManager.save();
+
+        FileBackedTasksManager restoredManager = FileBackedTasksManager.loadFromFileMapped(file);
+        FileBackedTasksManager expectedManager = FileBackedTasksManager.loadFromFile(file);
+        assertEquals(expectedManager.getTasks(), restoredManager.getTasks(), "Задачи не совпадают.");
+        assertEquals(expectedManager.getEpics(), restoredManager.getEpics(), "Эпики не совпадают.");
+        assertEquals(expectedManager.getSubtasks(), restoredManager.getSubtasks(), "Подзадачи не совпадают.");
+        assertEquals(expectedManager.getHistory(), restoredManager.getHistory(), "История не совпадает.");
+        assertEquals(taskManager.getTasks(), restoredManager.getTasks(), "Задачи не совпадают.");
+    }
+
+    @Test
+    void loadFromFileParallel() throws IOException {
+        File file = Files.createTempFile("kanban_parallel_test", ".csv").toFile();
+        file.deleteOnExit();
+        taskManager = new FileBackedTasksManager(file);
+
+        //Файл из нескольких участков параллельной загрузки (несколько мегабайт)
+        final int COUNT = 10_000;
+        LocalDateTime startTime = LocalDateTime.of(2023, 3, 6, 18, 20);
+        taskManager.beginBulkLoad();
+        for (int i = 1; i <= COUNT; i++) {
+            Task task = new Task("Задача " + i, "Описание, \"задачи\" " + i, TaskStatus.NEW, i);
+            task.setStartTime(startTime.plusMinutes(10L * i));
+            task.setDuration(Duration.ofMinutes(5));
+            taskManager.importTask(task);
+            taskManager.importEpic(new Epic("Эпик " + i, "Описание эпика " + i, TaskStatus.NEW, COUNT + i));
+            Subtask subtask = new Subtask(COUNT + i, "Подзадача " + i, "Описание подзадачи " + i,
+                    (i % 2 == 0) ? TaskStatus.DONE : TaskStatus.IN_PROGRESS, 2 * COUNT + i);
+            subtask.setStartTime(startTime.plusMinutes(10L * i + 5));
+            subtask.setDuration(Duration.ofMinutes(5));
+            taskManager.importSubtask(subtask);
+        }
+        taskManager.endBulkLoad();
+        taskManager.getSubtask(2 * COUNT + 7);
+        taskManager.getTask(COUNT);
+        taskManager.getEpic(COUNT + 1);
+        taskManager.save();
+
+        FileBackedTasksManager restoredManager = FileBackedTasksManager.loadFromFileParallel(file);
+        FileBackedTasksManager expectedManager = FileBackedTasksManager.loadFromFile(file);
+        assertEquals(expectedManager.getTasks(), restoredManager.getTasks(), "Задачи не совпадают.");
+        assertEquals(expectedManager.getEpics(), restoredManager.getEpics(), "Эпики не совпадают.");
+        assertEquals(expectedManager.getSubtasks(), restoredManager.getSubtasks(), "Подзадачи не совпадают.");
+        assertEquals(expectedManager.getHistory(), restoredManager.getHistory(), "История не совпадает.");
+        assertEquals(expectedManager.getPrioritizedTasks(), restoredManager.getPrioritizedTasks(),
+                "Приоритеты не совпадают.");
+        assertEquals(taskManager.getEpic(COUNT + 2).getStatus(), restoredManager.getEpic(COUNT + 2).getStatus(),
+                "Статус эпика не совпадает.");
+
+        //Файл без истории и пустой файл
+        taskManager.clearAll();
+        taskManager.appendTask(new Task("Задача", "Описание"));
+        taskManager.save();
+        assertEquals(taskManager.getTasks(), FileBackedTasksManager.loadFromFileParallel(file).getTasks(),
+                "Задачи не совпадают.");
+        Files.writeString(file.toPath(), "");
+        assertTrue(FileBackedTasksManager.loadFromFileParallel(file).getTasks().isEmpty(),
+                "Задачи загружены из пустого файла.");
+    }
+
+    @Test
+    void saveAndLoadCompressed() throws IOException {
+        File file = Files.createTempFile("kanban_compressed_test", ".csv").toFile();
+        file.deleteOnExit();
+        new File(file.getPath() + ".history").deleteOnExit();
+        taskManager = new FileBackedTasksManager(file);
+        generateSomeTasksAndHistory("saveAndLoadCompressed");
+        taskManager.save();
+        long plainLength = file.length();
+
+        taskManager.setCompressed(true);
+        taskManager.save();
+        byte[] content = Files.readAllBytes(file.toPath());
+        assertTrue((content[0] == (byte) 0x1F) && (content[1] == (byte) 0x8B), "Файл сохранен без сжатия.");
+        assertTrue(file.length() < plainLength, "Сжатый файл не меньше исходного.");
+
+        //Формат файла определяется при загрузке, сжатый файл далее сохраняется сжатым
+        FileBackedTasksManager restoredManager = FileBackedTasksManager.loadFromFile(file);
+        assertTrue(restoredManager.isCompressed(), "Сжатый файл не распознан.");
+        assertEquals(taskManager.getTasks(), restoredManager.getTasks(), "Задачи не совпадают.");
+        assertEquals(taskManager.getEpics(), restoredManager.getEpics(), "Эпики не совпадают.");
+        assertEquals(taskManager.getSubtasks(), restoredManager.getSubtasks(), "Подзадачи не совпадают.");
+        assertEquals(taskManager.getHistory(), restoredManager.getHistory(), "История не совпадает.");
+        assertEquals(taskManager.getSubtasks(), FileBackedTasksManager.loadFromFileMapped(file).getSubtasks(),
+                "Подзадачи не совпадают.");
+        assertEquals(taskManager.getSubtasks(), FileBackedTasksManager.loadFromFileParallel(file).getSubtasks(),
+                "Подзадачи не совпадают.");
+
+        //Журнал истории относится к сжатому снимку
+        Task task = restoredManager.getTasks().get(1);
+        restoredManager.getTask(task.getId());
+        restoredManager.appendTask(new Task("Новая задача", "Описание"));
+        assertEquals(restoredManager.getHistory(), FileBackedTasksManager.loadFromFile(file).getHistory(),
+                "История не совпадает.");
+        assertTrue(FileBackedTasksManager.loadFromFile(file).isCompressed(), "Файл сохранен без сжатия.");
+
+        restoredManager.setCompressed(false);
+        restoredManager.save();
+        assertFalse(FileBackedTasksManager.loadFromFile(file).isCompressed(), "Файл сохранен со сжатием.");
+    }
+}
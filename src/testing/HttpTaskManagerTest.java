@@ -1,17 +1,33 @@
 package testing;
 
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import model.Epic;
+import model.Subtask;
+import model.Task;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
 import service.KVServer;
 import service.HttpTaskManager;
 import service.TaskManager;
 
 import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 class HttpTaskManagerTest extends TaskManagerTest {
 
-    static TaskManager globalManager;
+    static final String URL = "http://localhost:8078";
+    static HttpTaskManager globalManager;
     static KVServer kvServer;
 
     @BeforeAll
@@ -22,14 +38,14 @@ class HttpTaskManagerTest extends TaskManagerTest {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        String url = "http://localhost:8078";
-        globalManager = new HttpTaskManager(url);
+        globalManager = new HttpTaskManager(URL);
     }
 
     @BeforeEach
     void setUp() {
         taskManager = HttpTaskManagerTest.globalManager;
         taskManager.clearAll();
+        globalManager.flush(); //Сохранение выполняется асинхронно, дожидаемся его завершения
     }
 
     @AfterAll
@@ -37,4 +53,113 @@ class HttpTaskManagerTest extends TaskManagerTest {
         kvServer.stop();
     }
 
-}
\ No newline at end of file
+    // Ключи хранилища KVServer с заданным префиксом
+    private static List<String> storedKeys(String prefix) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(URL + "/keys/" + prefix + "?API_TOKEN=DEBUG"))
+                .GET()
+                .build();
+        HttpResponse<String> response = HttpClient.newHttpClient().send(request,
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode(), "Список ключей не получен.");
+        return new Gson().fromJson(response.body(), new TypeToken<ArrayList<String>>() {
+        }.getType());
+    }
+
+    @Test
+    void deltaSaveAndLoad() throws IOException, InterruptedException {
+        //Отдельный менеджер, чтобы не сдвигать идентификаторы общего менеджера других тестов
+        HttpTaskManager manager = new HttpTaskManager(URL);
+        taskManager = manager;
+        generateSomeTasksAndHistory("deltaSaveAndLoad");
+        List<Epic> epics = taskManager.getEpics();
+        Subtask subtask = taskManager.getSubtasks().get(1);
+        subtask.setName("Измененная подзадача");
+        taskManager.updateSubtask(subtask);
+        taskManager.deleteTask(taskManager.getTasks().get(0).getId());
+        taskManager.deleteSubtask(taskManager.getSubtasks().get(0).getId());
+        taskManager.appendSubtask(new Subtask(epics.get(1), "Подзадача второго эпика", ""));
+        taskManager.getTask(taskManager.getTasks().get(0).getId());
+        manager.flush();
+
+        //Каждая задача и каждый элемент истории хранятся под своим ключом, удаленные ключи отсутствуют
+        assertEquals(taskManager.getTasks().size(), storedKeys("task/").size(), "Неверное количество задач.");
+        assertEquals(taskManager.getEpics().size(), storedKeys("epic/").size(), "Неверное количество эпиков.");
+        assertEquals(taskManager.getSubtasks().size(), storedKeys("subtask/").size(),
+                "Неверное количество подзадач.");
+        assertEquals(taskManager.getHistory().size(), storedKeys("history/").size(),
+                "Неверное количество элементов истории.");
+
+        TaskManager restoredManager = new HttpTaskManager(URL);
+        assertEquals(taskManager.getHistory(), restoredManager.getHistory(), "История не совпадает.");
+        assertEquals(taskManager.getTasks(), restoredManager.getTasks(), "Задачи не совпадают.");
+        assertEquals(taskManager.getEpics(), restoredManager.getEpics(), "Эпики не совпадают.");
+        assertEquals(taskManager.getSubtasks(), restoredManager.getSubtasks(), "Подзадачи не совпадают.");
+        assertEquals(taskManager.getPrioritizedTasks(), restoredManager.getPrioritizedTasks(),
+                "Приоритеты не совпадают.");
+
+        //Эпик удаляется вместе с подзадачами и элементами истории
+        taskManager.deleteEpic(epics.get(0).getId());
+        manager.flush();
+        assertEquals(taskManager.getSubtasks().size(), storedKeys("subtask/").size(),
+                "Неверное количество подзадач.");
+        assertEquals(taskManager.getHistory().size(), storedKeys("history/").size(),
+                "Неверное количество элементов истории.");
+        taskManager.clearAll();
+        manager.flush();
+        assertTrue(storedKeys("").isEmpty(), "Ключи не удалены.");
+    }
+
+    // Запрос к KVServer с отладочным ключом API
+    private static HttpResponse<String> sendToKVServer(String path, String body)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder().uri(URI.create(URL + path + "?API_TOKEN=DEBUG"));
+        HttpRequest request = (body == null) ? builder.GET().build()
+                : builder.POST(HttpRequest.BodyPublishers.ofString(body)).build();
+        return HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    void batchSaveAndLoad() throws IOException, InterruptedException {
+        Gson gson = new Gson();
+        assertEquals(200, sendToKVServer("/batch/save", "{\"batch/1\":\"a\",\"batch/2\":\"b\",\"batch/3\":\"c\"}")
+                .statusCode(), "Пакет не сохранен.");
+        HttpResponse<String> response = sendToKVServer("/batch/load", "[\"batch/1\",\"batch/3\",\"batch/4\"]");
+        assertEquals(200, response.statusCode(), "Пакет не получен.");
+        assertEquals(Map.of("batch/1", "a", "batch/3", "c"), gson.fromJson(response.body(), Map.class),
+                "Неверный пакет значений.");
+
+        //null удаляет ключ, пакет с ошибкой не применяется
+        assertEquals(200, sendToKVServer("/batch/save", "{\"batch/1\":null,\"batch/2\":\"bb\"}").statusCode(),
+                "Пакет не сохранен.");
+        assertEquals(400, sendToKVServer("/batch/save", "{\"batch/2\":\"x\",\"batch/3\":\"\"}").statusCode(),
+                "Пакет с пустым значением сохранен.");
+        assertEquals(400, sendToKVServer("/batch/save", "[1, 2]").statusCode(), "Некорректный пакет сохранен.");
+        response = sendToKVServer("/batch/load/batch/", null);
+        assertEquals(Map.of("batch/2", "bb", "batch/3", "c"), gson.fromJson(response.body(), Map.class),
+                "Неверный пакет значений.");
+
+        sendToKVServer("/batch/save", "{\"batch/2\":null,\"batch/3\":null}");
+        assertTrue(storedKeys("batch/").isEmpty(), "Ключи не удалены.");
+    }
+
+    @Test
+    void pipelinedSavesKeepOrder() {
+        //Сохранения отправляются без ожидания ответа, изменения одной задачи применяются в порядке вызовов
+        Task task = taskManager.appendTask(new Task("Задача", "Описание"));
+        Epic epic = taskManager.appendEpic(new Epic("Эпик", "Описание"));
+        for (int i = 0; i < 50; i++) {
+            task.setName("Задача " + i);
+            taskManager.updateTask(task);
+            taskManager.appendSubtask(new Subtask(epic, "Подзадача " + i, ""));
+            taskManager.getTask(task.getId());
+        }
+        globalManager.flush();
+
+        TaskManager restoredManager = new HttpTaskManager(URL);
+        assertEquals("Задача 49", restoredManager.getTask(task.getId()).getName(), "Неверный порядок сохранений.");
+        assertEquals(taskManager.getEpic(epic.getId()), restoredManager.getEpic(epic.getId()),
+                "Эпики не совпадают.");
+        assertEquals(50, restoredManager.getSubtasks().size(), "Неверное количество подзадач.");
+    }
+}
@@ -5,6 +5,7 @@ import com.google.gson.GsonBuilder;
 import model.Epic;
 import model.Subtask;
 import model.Task;
+import model.TimeSlot;
 import org.junit.jupiter.api.*;
 import service.*;
 import service.adapters.DurationAdapter;
@@ -279,7 +280,7 @@ class HttpTaskServerTest {
         assertEquals(newTask, resultTask, "Модельная задачи и загруженная из сервера отличаются.");
 
         //Удаляем тестовую задачу
-        String targetId = resultTask.getId().toString();
+        String targetId = String.valueOf(resultTask.getId());
 
         response = simpleDELETE(URI.create("http://localhost:8080/tasks/task/?id=" + targetId));
         assertEquals(204, response.statusCode(), "Сервер вернул неверный код ответа: " + response.statusCode());
@@ -412,7 +413,7 @@ class HttpTaskServerTest {
         assertEquals(newEpic, resultEpic, "Модельный эпик и загруженный из сервера отличаются.");
 
         //Удаляем тестовый эпик
-        String targetId = resultEpic.getId().toString();
+        String targetId = String.valueOf(resultEpic.getId());
 
         response = simpleDELETE(URI.create("http://localhost:8080/tasks/epic/?id=" + targetId));
         assertEquals(204, response.statusCode(), "Сервер вернул неверный код ответа: " + response.statusCode());
@@ -592,7 +593,7 @@ class HttpTaskServerTest {
         assertEquals(newSubtask, resultSubtask, "Модельный сабтаск и загруженный из сервера отличаются.");
 
         //Удаляем тестовый сабтаск
-        String targetId = resultSubtask.getId().toString();
+        String targetId = String.valueOf(resultSubtask.getId());
 
         response = simpleDELETE(URI.create("http://localhost:8080/tasks/subtask/?id=" + targetId));
         assertEquals(204, response.statusCode(), "Сервер вернул неверный код ответа: " + response.statusCode());
@@ -620,6 +621,57 @@ class HttpTaskServerTest {
 
     }
 
+    @Test
+    public void getPrioritizedTasksInPeriod() throws IOException, InterruptedException {
+        TaskManager taskManager = httpTaskServer.getTaskManager();
+        LocalDateTime startTime = LocalDateTime.of(2023, 3, 6, 18, 20);
+        Duration duration = Duration.ofMinutes(30);
+
+        List<Task> tasks = generateTasksForTest("getPrioritizedTasksInPeriod", 4);
+        for (int i = 0; i < tasks.size(); i++) {
+            Task task = tasks.get(i);
+            task.setStartTime(startTime.plus(duration.multipliedBy(i)));
+            task.setDuration(duration);
+            taskManager.appendTask(task);
+        }
+
+        URI uri = URI.create("http://localhost:8080/tasks/?from=" + startTime.plus(duration)
+                + "&to=" + startTime.plus(duration.multipliedBy(4)) + "&offset=1&limit=1");
+        HttpResponse<String> response = simpleGET(uri);
+
+        assertEquals(200, response.statusCode(), "Сервер вернул неверный код ответа.");
+        Task[] responseTasks = createGson().fromJson(response.body(), Task[].class);
+        assertEquals(1, responseTasks.length, "Неправильное количество задач в ответе.");
+        assertEquals(tasks.get(2).getId(), responseTasks[0].getId(), "Неправильная задача в ответе.");
+
+        response = simpleGET(URI.create("http://localhost:8080/tasks/?from=someday"));
+        assertEquals(400, response.statusCode(), "Сервер вернул неверный код ответа на ошибочный период.");
+
+        response = simpleGET(URI.create("http://localhost:8080/tasks/?limit=-1"));
+        assertEquals(400, response.statusCode(), "Сервер вернул неверный код ответа на ошибочный limit.");
+    }
+
+    @Test
+    public void findFreeSlots() throws IOException, InterruptedException {
+        LocalDateTime from = LocalDateTime.of(2023, 3, 6, 18, 0);
+        Task task = generateTasksForTest("findFreeSlots", 1).get(0);
+        task.setStartTime(from.plusMinutes(30));
+        task.setDuration(Duration.ofMinutes(30));
+        httpTaskServer.getTaskManager().appendTask(task);
+
+        URI uri = URI.create("http://localhost:8080/tasks/slots?duration=PT30M&from=" + from
+                + "&to=" + from.plusHours(2) + "&count=2");
+        HttpResponse<String> response = simpleGET(uri);
+
+        assertEquals(200, response.statusCode(), "Сервер вернул неверный код ответа.");
+        TimeSlot[] slots = createGson().fromJson(response.body(), TimeSlot[].class);
+        assertArrayEquals(new TimeSlot[]{new TimeSlot(from, from.plusMinutes(30)),
+                new TimeSlot(from.plusHours(1), from.plusHours(2))}, slots, "Неверный перечень свободных периодов.");
+
+        response = simpleGET(URI.create("http://localhost:8080/tasks/slots?duration=PT30M"));
+        assertEquals(400, response.statusCode(), "Сервер вернул неверный код ответа на запрос без периода.");
+    }
+
     @Test
     public void getTasks() throws IOException, InterruptedException {
         httpTaskServer.getTaskManager().clearAll();
@@ -3,13 +3,24 @@ package testing;
 import model.Epic;
 import model.Subtask;
 import model.Task;
+import model.TaskStatus;
+import model.TimeSlot;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import service.InMemoryTaskManager;
+import service.IntervalTimeValidator;
+import service.TaskValidator;
+import service.TaskManager;
+import service.TaskValidatorException;
+import service.TimeIntersectionsValidator;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -75,4 +86,307 @@ class InMemoryTaskManagerTest extends TaskManagerTest<InMemoryTaskManager> {
         }
 
     }
+
+    @Test
+    void getPrioritizedTasksAfterUpdateAndDelete() {
+        final Duration TASK_DURATION = Duration.ofMinutes(30);
+        LocalDateTime startTime = LocalDateTime.of(2023, 3, 6, 18, 20);
+
+        List<Task> tasks = generateTasksForTest("getPrioritizedTasksAfterUpdateAndDelete", 3);
+        for (int i = 0; i < tasks.size(); i++) {
+            Task task = tasks.get(i);
+            task.setStartTime(startTime.plus(TASK_DURATION.multipliedBy(i)));
+            task.setDuration(TASK_DURATION);
+            taskManager.appendTask(task);
+        }
+
+        //Переносим первую задачу в конец расписания, изменяя объект "на месте"
+        Task firstTask = tasks.get(0);
+        firstTask.setStartTime(startTime.plusDays(1));
+        taskManager.updateTask(firstTask);
+
+        List<Task> prioritizedTasks = taskManager.getPrioritizedTasks();
+        assertEquals(List.of(tasks.get(1), tasks.get(2), firstTask), prioritizedTasks,
+                "Неправильный порядок задач после обновления.");
+
+        //Задача без времени следует после задач со временем
+        Task secondTask = tasks.get(1);
+        secondTask.setStartTime(null);
+        taskManager.updateTask(secondTask);
+        assertEquals(List.of(tasks.get(2), firstTask, secondTask), taskManager.getPrioritizedTasks(),
+                "Задача без времени должна следовать после задач со временем.");
+
+        taskManager.deleteTask(firstTask.getId());
+        assertEquals(List.of(tasks.get(2), secondTask), taskManager.getPrioritizedTasks(),
+                "Удаленная задача осталась в перечне.");
+
+        taskManager.clearTasks();
+        assertTrue(taskManager.getPrioritizedTasks().isEmpty(), "Перечень задач не очищен.");
+    }
+
+    @Test
+    void epicWithManySubtasks() {
+        //Подзадач больше порога индекса перечня подзадач эпика; удаление в случайном порядке
+        final int COUNT = 5000;
+        Epic epic = taskManager.appendEpic(new Epic("Эпик", "Описание"));
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++) {
+            expected.add(taskManager.appendSubtask(new Subtask(epic, "Подзадача " + i, "Описание")).getId());
+        }
+        assertEquals(expected, epic.getSubtaskIds(), "Перечень подзадач эпика не совпадает.");
+
+        List<Integer> removed = new ArrayList<>(expected);
+        Collections.shuffle(removed, new Random(7));
+        removed = removed.subList(0, COUNT - 10);
+        for (Integer id : removed) {
+            taskManager.deleteSubtask(id);
+        }
+        expected.removeAll(removed);
+        //Оставшиеся подзадачи перечисляются в порядке добавления
+        assertEquals(expected, epic.getSubtaskIds(), "Перечень подзадач эпика после удаления не совпадает.");
+
+        Subtask subtask = taskManager.appendSubtask(new Subtask(epic, "Новая подзадача", "Описание"));
+        expected.add(subtask.getId());
+        assertEquals(expected, epic.getSubtaskIds(), "Добавленная подзадача не учтена в эпике.");
+        taskManager.deleteSubtask(expected.get(0));
+        expected.remove(0);
+        assertEquals(expected, taskManager.getEpic(epic.getId()).getSubtaskIds(),
+                "Перечень подзадач эпика не совпадает.");
+    }
+
+    @Test
+    void getPrioritizedTasksLargeSchedule() {
+        //Задач больше, чем помещается в один блок индекса; задачи добавляются в случайном порядке времени
+        final int COUNT = 2000;
+        LocalDateTime startTime = LocalDateTime.of(2023, 3, 6, 18, 0);
+        List<Integer> minutes = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++) {
+            minutes.add(i * 60);
+        }
+        Collections.shuffle(minutes, new Random(5));
+
+        List<Task> tasks = generateTasksForTest("getPrioritizedTasksLargeSchedule", COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            Task task = tasks.get(i);
+            task.setStartTime(startTime.plusMinutes(minutes.get(i)));
+            task.setDuration(Duration.ofMinutes(1));
+            taskManager.appendTask(task);
+        }
+        List<Task> snapshot = taskManager.getPrioritizedTasks();
+
+        //Часть задач удаляется, часть переносится на свободное время (середина часа)
+        List<Task> expected = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++) {
+            Task task = tasks.get(i);
+            if (i % 3 == 0) {
+                taskManager.deleteTask(task.getId());
+                continue;
+            }
+            if (i % 5 == 0) {
+                task.setStartTime(startTime.plusMinutes(minutes.get((i + 7) % COUNT) + 30));
+                taskManager.updateTask(task);
+            }
+            expected.add(task);
+        }
+        expected.sort(Comparator.comparing(Task::getStartTime));
+
+        assertEquals(expected, taskManager.getPrioritizedTasks(), "Неправильный порядок задач.");
+        assertEquals(COUNT, snapshot.size(), "Полученный ранее перечень изменился вместе с менеджером.");
+
+        LocalDateTime from = startTime.plusMinutes(30000);
+        LocalDateTime to = startTime.plusMinutes(90030);
+        List<Task> expectedPeriod = new ArrayList<>();
+        for (Task task : expected) {
+            if (!task.getStartTime().isBefore(from) && task.getStartTime().isBefore(to)) {
+                expectedPeriod.add(task);
+            }
+        }
+        assertEquals(expectedPeriod, taskManager.getPrioritizedTasks(from, to), "Неправильная выборка за период.");
+    }
+
+    @Test
+    void timesIntersectionsWithConfiguredChunkDuration() {
+        final Duration CHUNK_DURATION = Duration.ofMinutes(30);
+        LocalDateTime startTime = LocalDateTime.of(2023, 3, 6, 18, 0);
+
+        for (TaskValidator validator : List.of(new TimeIntersectionsValidator(CHUNK_DURATION),
+                new IntervalTimeValidator(CHUNK_DURATION))) {
+            taskManager = new InMemoryTaskManager(validator);
+            List<Task> tasks = generateTasksForTest("timesIntersectionsWithConfiguredChunkDuration", 3);
+
+            Task task = tasks.get(0);
+            task.setStartTime(startTime);
+            task.setDuration(Duration.ofMinutes(10));
+            assertNotNull(taskManager.appendTask(task), "Задача не добавлена.");
+
+            //Задачи в пределах одного чанка пересекаются, даже если не пересекаются по времени
+            Task sameChunkTask = tasks.get(1);
+            sameChunkTask.setStartTime(startTime.plusMinutes(20));
+            sameChunkTask.setDuration(Duration.ofMinutes(5));
+            assertThrows(TaskValidatorException.class, () -> taskManager.appendTask(sameChunkTask),
+                    "Пересечение в пределах чанка не обнаружено.");
+
+            Task nextChunkTask = tasks.get(2);
+            nextChunkTask.setStartTime(startTime.plus(CHUNK_DURATION));
+            nextChunkTask.setDuration(Duration.ofMinutes(5));
+            assertNotNull(taskManager.appendTask(nextChunkTask), "Задача в следующем чанке не добавлена.");
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> new TimeIntersectionsValidator(Duration.ofMinutes(7)),
+                "Продолжительность чанка, не делящая час, должна отклоняться.");
+    }
+
+    @Test
+    void updateTimedTaskWithLargeId() {
+        //Задача сравнивается с собственным прежним интервалом по id; id больше 127 (вне кеша Integer)
+        LocalDateTime startTime = LocalDateTime.of(2023, 3, 6, 18, 0);
+
+        for (TaskValidator validator : List.of(new TimeIntersectionsValidator(), new IntervalTimeValidator())) {
+            taskManager = new InMemoryTaskManager(validator);
+            for (Task task : generateTasksForTest("updateTimedTaskWithLargeId", 200)) {
+                taskManager.appendTask(task);
+            }
+            Task task = new Task("Задача со временем", "Описание");
+            task.setStartTime(startTime);
+            task.setDuration(Duration.ofHours(1));
+            taskManager.appendTask(task);
+            assertTrue(task.getId() > 127, "Идентификатор задачи не превышает 127.");
+
+            Task updated = new Task("Задача со временем", "Описание", TaskStatus.IN_PROGRESS, task.getId());
+            updated.setStartTime(startTime.plusMinutes(30));
+            updated.setDuration(Duration.ofHours(1));
+            assertEquals(updated, taskManager.updateTask(updated), "Задача не обновлена.");
+
+            Epic epic = taskManager.appendEpic(new Epic("Эпик", "Описание"));
+            Subtask subtask = new Subtask(epic, "Подзадача", "Описание");
+            subtask.setStartTime(startTime.plusHours(3));
+            subtask.setDuration(Duration.ofHours(1));
+            taskManager.appendSubtask(subtask);
+            subtask.setStatus(TaskStatus.DONE);
+            assertEquals(subtask, taskManager.updateSubtask(subtask), "Подзадача не обновлена.");
+        }
+    }
+
+    @Test
+    void findFreeSlotsWithoutFinderValidator() {
+        //Валидатор не ведет сведения о занятости: свободное время определяется по индексу приоритетов
+        taskManager = new InMemoryTaskManager(new TaskValidator() {
+            @Override
+            public void validate(TaskManager manager, Task task) {
+            }
+
+            @Override
+            public void onAddTask(Task task) {
+            }
+
+            @Override
+            public void onRemoveTask(Task task) {
+            }
+
+            @Override
+            public void onRemoveTasks(List<Task> tasks) {
+            }
+        });
+        LocalDateTime from = LocalDateTime.of(2023, 3, 6, 18, 0);
+        LocalDateTime to = from.plusHours(4);
+
+        List<Task> tasks = generateTasksForTest("findFreeSlotsWithoutFinderValidator", 3);
+        tasks.get(0).setStartTime(from.minusHours(1));
+        tasks.get(0).setDuration(Duration.ofMinutes(80)); //начата до периода поиска, заканчивается в 18:20
+        tasks.get(1).setStartTime(from.plusHours(1));
+        tasks.get(1).setDuration(Duration.ofMinutes(62));
+        for (Task task : tasks) {
+            taskManager.appendTask(task);
+        }
+
+        assertEquals(List.of(new TimeSlot(from.plusMinutes(20), from.plusHours(1)),
+                        new TimeSlot(from.plusHours(2).plusMinutes(2), to)),
+                taskManager.findFreeSlots(Duration.ofMinutes(10), from, to, 5),
+                "Неверный перечень свободных периодов.");
+        assertEquals(List.of(new TimeSlot(from.plusHours(2).plusMinutes(2), to)),
+                taskManager.findFreeSlots(Duration.ofMinutes(50), from, to, 1),
+                "Неверный перечень свободных периодов.");
+    }
+
+    //Набор импортируемых задач: задачи, эпики, подзадачи разных эпиков со временем и статусами
+    private List<Task> generateTasksForImport(LocalDateTime startTime, Duration duration) {
+        List<Task> imported = new ArrayList<>();
+        Epic firstEpic = new Epic("Эпик 1", "", TaskStatus.NEW, 10);
+        Epic secondEpic = new Epic("Эпик 2", "", TaskStatus.DONE, 11);
+        //Подзадача импортируется раньше своего эпика
+        Subtask earlySubtask = new Subtask(secondEpic, "Подзадача 0", "", TaskStatus.DONE, 12);
+        earlySubtask.setStartTime(startTime.minusDays(1));
+        earlySubtask.setDuration(duration);
+        imported.add(earlySubtask);
+        imported.add(firstEpic);
+        imported.add(secondEpic);
+        for (int i = 0; i < 6; i++) {
+            Task task = new Task("Задача " + i, "", TaskStatus.NEW, 20 + i);
+            Subtask subtask = new Subtask((i % 2 == 0) ? firstEpic : secondEpic, "Подзадача " + i, "",
+                    (i < 3) ? TaskStatus.DONE : TaskStatus.IN_PROGRESS, 30 + i);
+            if (i != 4) {
+                task.setStartTime(startTime.plus(duration.multipliedBy(2 * i)));
+                task.setDuration(duration);
+                subtask.setStartTime(startTime.plus(duration.multipliedBy(2 * i + 1)));
+                subtask.setDuration(duration);
+            }
+            imported.add(subtask);
+            imported.add(task);
+        }
+        return imported;
+    }
+
+    private static void importTasks(InMemoryTaskManager manager, List<Task> tasks) {
+        for (Task task : tasks) {
+            if (task instanceof Epic) {
+                manager.importEpic((Epic) task);
+            } else if (task instanceof Subtask) {
+                manager.importSubtask((Subtask) task);
+            } else {
+                manager.importTask(task);
+            }
+        }
+    }
+
+    @Test
+    void bulkLoadMatchesImport() {
+        final Duration TASK_DURATION = Duration.ofMinutes(30);
+        LocalDateTime startTime = LocalDateTime.of(2023, 3, 6, 18, 20);
+        InMemoryTaskManager bulkManager = new InMemoryTaskManager();
+
+        //Импорт по одной задаче и пакетная загрузка в менеджеры, уже содержащие задачу
+        taskManager.appendTask(new Task("Задача до загрузки", ""));
+        bulkManager.appendTask(new Task("Задача до загрузки", ""));
+        List<Task> imported = generateTasksForImport(startTime, TASK_DURATION);
+        importTasks(taskManager, imported);
+        //Подзадача, импортированная раньше эпика, при импорте по одной в эпике не учитывается
+        taskManager.updateSubtask((Subtask) imported.get(0));
+
+        bulkManager.beginBulkLoad();
+        importTasks(bulkManager, generateTasksForImport(startTime, TASK_DURATION));
+        assertTrue(bulkManager.isBulkLoad(), "Режим пакетной загрузки не включен.");
+        bulkManager.endBulkLoad();
+        assertFalse(bulkManager.isBulkLoad(), "Режим пакетной загрузки не выключен.");
+
+        assertEquals(taskManager.getTasks(), bulkManager.getTasks(), "Задачи не совпадают.");
+        assertEquals(taskManager.getSubtasks(), bulkManager.getSubtasks(), "Подзадачи не совпадают.");
+        assertEquals(taskManager.getPrioritizedTasks(), bulkManager.getPrioritizedTasks(),
+                "Приоритеты не совпадают.");
+        for (Epic epic : taskManager.getEpics()) {
+            Epic bulkEpic = bulkManager.getEpic(epic.getId());
+            assertEquals(epic.getStatus(), bulkEpic.getStatus(), "Статус эпика не совпадает.");
+            assertEquals(epic.getStartTime(), bulkEpic.getStartTime(), "Время начала эпика не совпадает.");
+            assertEquals(epic.getEndTime(), bulkEpic.getEndTime(), "Время окончания эпика не совпадает.");
+            assertEquals(epic.getDuration(), bulkEpic.getDuration(), "Продолжительность эпика не совпадает.");
+        }
+        assertEquals(TaskStatus.IN_PROGRESS, bulkManager.getEpic(11).getStatus(), "Неверный статус эпика.");
+        assertEquals(startTime.minusDays(1), bulkManager.getEpic(11).getStartTime(), "Неверное время эпика.");
+
+        //Валидатор учитывает загруженные задачи
+        Task intersectingTask = new Task("Пересечение", "");
+        intersectingTask.setStartTime(startTime.plusMinutes(10));
+        intersectingTask.setDuration(TASK_DURATION);
+        assertThrows(TaskValidatorException.class, () -> bulkManager.appendTask(intersectingTask),
+                "Пересечение с загруженной задачей не обнаружено.");
+    }
 }
@@ -0,0 +1,13 @@
+package testing;
+
+import org.junit.jupiter.api.BeforeEach;
+import service.InMemoryTaskManager;
+import service.IntervalTimeValidator;
+
+//Общие тесты менеджера с валидатором пересечений во времени на основе интервалов
+class IntervalValidatorTaskManagerTest extends TaskManagerTest<InMemoryTaskManager> {
+    @BeforeEach
+    void setUp() {
+        this.taskManager = new InMemoryTaskManager(new IntervalTimeValidator());
+    }
+}
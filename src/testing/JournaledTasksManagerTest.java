@@ -0,0 +1,150 @@
+package testing;
+
+import model.Epic;
+import model.Subtask;
+import model.Task;
+import model.TaskStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import service.JournaledTasksManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournaledTasksManagerTest extends TaskManagerTest<JournaledTasksManager> {
+    private File file;
+    private File journalFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = Files.createTempFile("kanban_journal_test", ".csv").toFile();
+        journalFile = new File(file.getPath() + ".journal");
+        taskManager = new JournaledTasksManager(file);
+    }
+
+    @AfterEach
+    void tearDown() {
+        file.delete();
+        journalFile.delete();
+    }
+
+    //Проверка совпадения данных двух менеджеров
+    private void assertSameState(JournaledTasksManager expected, JournaledTasksManager actual) {
+        assertEquals(expected.getTasks(), actual.getTasks(), "Задачи не совпадают.");
+        assertEquals(expected.getEpics(), actual.getEpics(), "Эпики не совпадают.");
+        assertEquals(expected.getSubtasks(), actual.getSubtasks(), "Подзадачи не совпадают.");
+        assertEquals(expected.getHistory(), actual.getHistory(), "История не совпадает.");
+        assertEquals(expected.getPrioritizedTasks(), actual.getPrioritizedTasks(), "Приоритеты не совпадают.");
+    }
+
+    @Test
+    void loadSnapshotAndJournal() {
+        List<Integer> ids = generateSomeTasksAndHistory("loadSnapshotAndJournal");
+
+        //Изменения после первого сохранения попадают в журнал
+        assertTrue(journalFile.exists(), "Журнал не создан.");
+
+        Subtask subtask = taskManager.getSubtasks().get(0);
+        Epic secondEpic = taskManager.getEpics().get(1);
+        Subtask movedSubtask = new Subtask(secondEpic, subtask.getName(), subtask.getDiscription(),
+                TaskStatus.DONE, subtask.getId());
+        taskManager.updateSubtask(movedSubtask);
+        taskManager.deleteTask(ids.get(0));
+        taskManager.getTask(ids.get(1));
+
+        JournaledTasksManager restoredManager = JournaledTasksManager.loadFromFile(file);
+
+        assertSameState(taskManager, restoredManager);
+        assertEquals(TaskStatus.DONE, restoredManager.getEpic(secondEpic.getId()).getStatus(),
+                "Статус эпика не восстановлен по подзадачам.");
+    }
+
+    @Test
+    void compactJournal() throws IOException {
+        taskManager = new JournaledTasksManager(file, 5);
+        generateSomeTasksAndHistory("compactJournal");
+
+        //После сжатия в журнале остается меньше записей, чем порог сжатия
+        long records = journalFile.exists() ? Files.readAllLines(journalFile.toPath()).size() : 0;
+        assertTrue(records < 5, "Журнал не сжимается.");
+
+        assertSameState(taskManager, JournaledTasksManager.loadFromFile(file));
+    }
+
+    @Test
+    void loadWithIncompleteJournalRecord() throws IOException {
+        Task task = generateTasksForTest("loadWithIncompleteJournalRecord", 1).get(0);
+        taskManager.appendTask(task);
+        taskManager.appendTask(generateTasksForTest("loadWithIncompleteJournalRecord", 1).get(0));
+
+        //Имитируем сбой во время записи: запись удаления без завершающего перевода строки
+        Files.writeString(journalFile.toPath(), "D," + task.getId(), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        JournaledTasksManager restoredManager = JournaledTasksManager.loadFromFile(file);
+        assertSameState(taskManager, restoredManager);
+
+        //Последующие изменения сохраняются без искажений
+        restoredManager.deleteTask(task.getId());
+        assertEquals(1, JournaledTasksManager.loadFromFile(file).getTasks().size(),
+                "Неверное количество задач.");
+    }
+
+    @Test
+    void journalOfOtherSnapshotIgnored() throws IOException {
+        List<Integer> ids = generateSomeTasksAndHistory("journalOfOtherSnapshotIgnored");
+        byte[] oldJournal = Files.readAllBytes(journalFile.toPath());
+
+        //Имитируем сбой при сжатии: снимок заменен, а прежний журнал не удален
+        taskManager.deleteTask(ids.get(0));
+        taskManager.save();
+        Files.write(journalFile.toPath(), oldJournal);
+
+        JournaledTasksManager restoredManager = JournaledTasksManager.loadFromFile(file);
+        assertSameState(taskManager, restoredManager);
+        assertNull(restoredManager.getTask(ids.get(0)), "Применен журнал другого снимка.");
+        assertFalse(journalFile.exists(), "Журнал другого снимка не удален.");
+
+        //Последующие изменения сохраняются в новый журнал
+        restoredManager.deleteTask(ids.get(1));
+        assertSameState(restoredManager, JournaledTasksManager.loadFromFile(file));
+    }
+
+    @Test
+    void replayEpicUpdateKeepsSubtasks() {
+        generateSomeTasksAndHistory("replayEpicUpdateKeepsSubtasks");
+        Epic epic = taskManager.getEpics().get(0);
+        Subtask subtask = taskManager.getSubtasks().get(0);
+        taskManager.updateSubtask(new Subtask(epic, subtask.getName(), subtask.getDiscription(),
+                TaskStatus.DONE, subtask.getId()));
+
+        //Запись обновления эпика применяется импортом, сведения о подзадачах эпика сохраняются
+        taskManager.updateEpic(new Epic("Новое имя", epic.getDiscription(), epic.getStatus(), epic.getId()));
+
+        JournaledTasksManager restoredManager = JournaledTasksManager.loadFromFile(file);
+        assertSameState(taskManager, restoredManager);
+        Epic restoredEpic = restoredManager.getEpic(epic.getId());
+        assertEquals("Новое имя", restoredEpic.getName(), "Обновление эпика не применено.");
+        assertEquals(taskManager.getEpic(epic.getId()).getSubtaskIds(), restoredEpic.getSubtaskIds(),
+                "Подзадачи эпика не сохранены.");
+        assertEquals(TaskStatus.IN_PROGRESS, restoredEpic.getStatus(), "Статус эпика не восстановлен.");
+    }
+
+    @Test
+    void newManagerIgnoresPreviousFiles() {
+        generateSomeTasksAndHistory("newManagerIgnoresPreviousFiles");
+
+        //Новый менеджер над теми же файлами начинает с собственного снимка
+        taskManager = new JournaledTasksManager(file);
+        taskManager.appendTask(generateTasksForTest("newManagerIgnoresPreviousFiles", 1).get(0));
+
+        assertSameState(taskManager, JournaledTasksManager.loadFromFile(file));
+    }
+}
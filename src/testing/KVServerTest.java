@@ -0,0 +1,266 @@
+package testing;
+
+import com.google.gson.Gson;
+import model.Epic;
+import model.Subtask;
+import model.Task;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import service.HttpTaskManager;
+import service.KVServer;
+import service.ManagerSaveException;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KVServerTest {
+
+    static final String URL = "http://localhost:8078";
+    static final Path DATA_DIR = Path.of("testfiles/kvdata_test");
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        if (Files.exists(DATA_DIR)) {
+            try (Stream<Path> files = Files.walk(DATA_DIR)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private static KVServer startServer() throws IOException {
+        KVServer server = new KVServer(DATA_DIR);
+        server.start();
+        return server;
+    }
+
+    private HttpResponse<String> send(String path, String body) throws IOException, InterruptedException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder().uri(URI.create(URL + path + "?API_TOKEN=DEBUG"));
+        HttpRequest request = (body == null) ? builder.GET().build()
+                : builder.POST(HttpRequest.BodyPublishers.ofString(body)).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private Map<?, ?> loadAll() throws IOException, InterruptedException {
+        return new Gson().fromJson(send("/batch/load", null).body(), Map.class);
+    }
+
+    private static List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(DATA_DIR)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    @Test
+    void restartKeepsData() throws IOException {
+        KVServer server = startServer();
+        try {
+            HttpTaskManager manager = new HttpTaskManager(URL);
+            Task task = manager.appendTask(new Task("Задача", "Описание"));
+            Epic epic = manager.appendEpic(new Epic("Эпик", "Описание"));
+            Subtask subtask = manager.appendSubtask(new Subtask(epic, "Подзадача", "Описание"));
+            manager.getTask(task.getId());
+            manager.flush();
+            server.stop();
+
+            server = startServer();
+            HttpTaskManager loaded = new HttpTaskManager(URL);
+            assertEquals(manager.getTasks(), loaded.getTasks(), "Задачи не восстановлены после перезапуска.");
+            assertEquals(manager.getEpics(), loaded.getEpics(), "Эпики не восстановлены после перезапуска.");
+            assertEquals(List.of(subtask), loaded.getSubtasks(), "Подзадачи не восстановлены после перезапуска.");
+            assertEquals(manager.getHistory(), loaded.getHistory(), "История не восстановлена после перезапуска.");
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void rejectedBatchReportedByFlush() throws IOException {
+        KVServer server = startServer();
+        HttpTaskManager manager;
+        try {
+            manager = new HttpTaskManager(URL);
+            manager.appendTask(new Task("Задача", "Описание"));
+            manager.flush();
+        } finally {
+            server.stop();
+        }
+
+        //KVServer недоступен: пакет не принят, ошибка передается flush()
+        manager.appendTask(new Task("Новая задача", "Описание"));
+        assertThrows(ManagerSaveException.class, manager::flush, "Ошибка сохранения не передана.");
+        //Значения не принятого пакета не потеряны: flush() отправляет их повторно
+        assertThrows(ManagerSaveException.class, manager::flush, "Не принятый пакет не отправлен повторно.");
+    }
+
+    @Test
+    void savesBeyondClientWindowKept() throws IOException {
+        KVServer server = startServer();
+        try {
+            //Сохранений больше, чем окно клиента: пакеты, не отправленные при заполненном окне, отправляет
+            //следующее сохранение или flush()
+            HttpTaskManager manager = new HttpTaskManager(URL);
+            for (int i = 0; i < 200; i++) {
+                Task task = manager.appendTask(new Task("Задача " + i, "Описание"));
+                manager.getTask(task.getId());
+            }
+            manager.flush();
+
+            HttpTaskManager loaded = new HttpTaskManager(URL);
+            assertEquals(manager.getTasks(), loaded.getTasks(), "Не все задачи сохранены.");
+            assertEquals(manager.getHistory(), loaded.getHistory(), "Не вся история сохранена.");
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void tornRecordDiscarded() throws IOException, InterruptedException {
+        KVServer server = startServer();
+        try {
+            assertEquals(200, send("/save/key1", "value1").statusCode(), "Значение не сохранено.");
+            assertEquals(200, send("/batch/save", "{\"key2\":\"value2\",\"key3\":\"value3\"}").statusCode(),
+                    "Пакет не сохранен.");
+        } finally {
+            server.stop();
+        }
+
+        //Сбой во время записи: в конце сегмента неполная запись
+        List<Path> segments = segments();
+        Path last = segments.get(segments.size() - 1);
+        long validSize = Files.size(last);
+        Files.write(last, new byte[]{0, 0, 0, 100, 1, 2, 3, 4, 1, 0}, StandardOpenOption.APPEND);
+
+        server = startServer();
+        try {
+            assertEquals(validSize, Files.size(last), "Неполная запись не отброшена.");
+            assertEquals(Map.of("key1", "value1", "key2", "value2", "key3", "value3"), loadAll(),
+                    "Данные не восстановлены.");
+            assertEquals(200, send("/save/key4", "value4").statusCode(), "Значение не сохранено.");
+        } finally {
+            server.stop();
+        }
+
+        server = startServer();
+        try {
+            assertEquals("value4", send("/load/key4", null).body(), "Значение после восстановления не сохранено.");
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void compactionKeepsData() throws IOException, InterruptedException {
+        KVServer server = startServer();
+        Map<String, String> expected = new HashMap<>();
+        try {
+            for (int i = 0; i < 200; i++) {
+                String key = "key" + (i % 10);
+                send("/save/" + key, "value" + i);
+                expected.put(key, "value" + i);
+            }
+            HttpRequest delete = HttpRequest.newBuilder()
+                    .uri(URI.create(URL + "/delete/key0?API_TOKEN=DEBUG")).DELETE().build();
+            client.send(delete, HttpResponse.BodyHandlers.ofString());
+            expected.remove("key0");
+
+            long sizeBefore = Files.size(segments().get(0));
+            server.compact();
+            List<Path> segments = segments();
+            assertEquals(2, segments.size(), "Сегменты журнала не заменены снимком.");
+            assertTrue(Files.size(segments.get(0)) < sizeBefore, "Журнал не сжат.");
+            assertEquals(expected, loadAll(), "Данные изменились при сжатии.");
+            send("/save/key1", "after compaction");
+            expected.put("key1", "after compaction");
+        } finally {
+            server.stop();
+        }
+
+        server = startServer();
+        try {
+            assertEquals(expected, loadAll(), "Данные не восстановлены после сжатия.");
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void writesDuringCompactionKept() throws Exception {
+        KVServer server = startServer();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Map<String, String> expected;
+        try {
+            //Снимок сжатия читается одновременно с записью новых значений
+            Future<Map<String, String>> writes = executor.submit(() -> {
+                Map<String, String> written = new HashMap<>();
+                for (int i = 0; i < 300; i++) {
+                    String key = "key" + (i % 20);
+                    send("/save/" + key, "value" + i);
+                    written.put(key, "value" + i);
+                }
+                return written;
+            });
+            while (!writes.isDone()) {
+                server.compact();
+            }
+            expected = writes.get();
+            assertEquals(expected, loadAll(), "Значения, записанные во время сжатия, потеряны.");
+        } finally {
+            executor.shutdown();
+            server.stop();
+        }
+
+        server = startServer();
+        try {
+            assertEquals(expected, loadAll(), "Данные не восстановлены после сжатия во время записи.");
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void concurrentSavesKept() throws Exception {
+        KVServer server = startServer();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                String key = "concurrent/" + i;
+                results.add(executor.submit(() -> send("/save/" + key, key).statusCode()));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(200, result.get(), "Значение не сохранено.");
+            }
+        } finally {
+            executor.shutdown();
+            server.stop();
+        }
+
+        server = startServer();
+        try {
+            assertEquals(40, loadAll().size(), "Не все значения сохранены.");
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package testing;
+
+import model.Epic;
+import model.Subtask;
+import model.Task;
+import service.InMemoryTaskManager;
+import service.TaskManager;
+
+//==========================================================================================================
+// Замер памяти, занимаемой менеджером с заданным количеством задач (после сборки мусора).
+// Запуск: java testing.MemoryFootprint [количество задач] [подзадач на эпик]
+// Задачи создаются без времени начала; при подзадачах на эпик > 0 каждая (k+1)-я задача - эпик,
+// остальные - его подзадачи. Рекомендуется запуск с фиксированной кучей (-Xms = -Xmx), например:
+//   java -Xms1g -Xmx1g -cp <классы>:<gson> testing.MemoryFootprint 1000000 0
+//-----------------------------------------------------------------------------------------------------------
+
+public final class MemoryFootprint {
+
+    private MemoryFootprint() {
+    }
+
+    public static void main(String[] args) {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+        int subtasksPerEpic = (args.length > 1) ? Integer.parseInt(args[1]) : 0;
+
+        long before = usedMemory();
+        TaskManager manager = new InMemoryTaskManager();
+        long started = System.nanoTime();
+        Epic epic = null;
+        for (int i = 0; i < count; i++) {
+            if (subtasksPerEpic == 0) {
+                manager.appendTask(new Task("Задача " + i, "Описание " + i));
+            } else if (i % (subtasksPerEpic + 1) == 0) {
+                epic = manager.appendEpic(new Epic("Эпик " + i, "Описание " + i));
+            } else {
+                manager.appendSubtask(new Subtask(epic, "Подзадача " + i, "Описание " + i));
+            }
+        }
+        long elapsed = System.nanoTime() - started;
+        long after = usedMemory();
+
+        System.out.printf("Задач: %d, подзадач на эпик: %d%n", count, subtasksPerEpic);
+        System.out.printf("Создание: %d мс%n", elapsed / 1_000_000);
+        System.out.printf("Занято памяти: %.1f МБ (%.1f байт на задачу)%n", (after - before) / 1048576.0,
+                (after - before) / (double) count);
+        //Ссылка на менеджер удерживается до окончания замера
+        System.out.println("Контроль: " + (manager.getTasks().size() + manager.getEpics().size()
+                + manager.getSubtasks().size()));
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -4,6 +4,7 @@ import model.Epic;
 import model.Subtask;
 import model.Task;
 import model.TaskStatus;
+import model.TimeSlot;
 import service.TaskManager;
 import service.TaskValidatorException;
 import org.junit.jupiter.api.*;
@@ -765,6 +766,37 @@ abstract class TaskManagerTest<T extends TaskManager> {
         assertNull(found, "Сабтаск найден.");
     }
 
+    @Test
+    void find() {
+        //Поиск в пустом наборе
+        assertNull(taskManager.find(1), "Задача найдена.");
+
+        //Генерируем задачу, эпик и сабтаск для теста
+        Task task = generateTasksForTest("find", 1).get(0);
+        taskManager.appendTask(task);
+        Epic epic = generateEpicsForTest("find", 1).get(0);
+        taskManager.appendEpic(epic);
+        Subtask subtask = generateSubtasksForTest("find", epic, 1).get(0);
+        taskManager.appendSubtask(subtask);
+
+        //Проверяем получение объектов каждого типа по идентификатору
+        assertEquals(task, taskManager.find(task.getId()), "Найденная задача отличается");
+        assertEquals(epic, taskManager.find(epic.getId()), "Найденный эпик отличается");
+        assertEquals(subtask, taskManager.find(subtask.getId()), "Найденный сабтаск отличается");
+        assertNull(taskManager.find(100), "Задача найдена.");
+
+        //Каждое успешное обращение вносится в историю один раз
+        assertEquals(List.of(task, epic, subtask), taskManager.getHistory(), "Неверная история обращений");
+
+        //Удаление по идентификатору не зависит от типа объекта
+        assertTrue(taskManager.delete(subtask.getId()), "Сабтаск не удален");
+        assertTrue(taskManager.delete(epic.getId()), "Эпик не удален");
+        assertTrue(taskManager.delete(task.getId()), "Задача не удалена");
+        assertFalse(taskManager.delete(task.getId()), "Повторно удалена задача");
+        assertNull(taskManager.find(epic.getId()), "Эпик найден после удаления.");
+        assertEquals(0, taskManager.getAllTasks().size(), "Неверное количество задач после удаления.");
+    }
+
     @Test
     void getTasks() {
         final int TASK_COUNT = 15;
@@ -838,6 +870,37 @@ abstract class TaskManagerTest<T extends TaskManager> {
         assertEquals(SUBTASKS_COUNT, subtasks.size(), "Неверное количество сабтасков.");
     }
 
+    @Test
+    void getEpicSubtasks() {
+        //Генерируем эпики и сабтаски для каждого из них
+        List<Epic> epics = generateEpicsForTest("getEpicSubtasks", 2);
+        for (Epic epic : epics) {
+            taskManager.appendEpic(epic);
+        }
+        List<Subtask> firstEpicSubtasks = generateSubtasksForTest("getEpicSubtasks", epics.get(0), 3);
+        List<Subtask> secondEpicSubtasks = generateSubtasksForTest("getEpicSubtasks", epics.get(1), 2);
+        for (int i = 0; i < firstEpicSubtasks.size(); i++) {
+            taskManager.appendSubtask(firstEpicSubtasks.get(i));
+            if (i < secondEpicSubtasks.size()) {
+                taskManager.appendSubtask(secondEpicSubtasks.get(i));
+            }
+        }
+
+        //Проверяем состав и порядок сабтасков эпика
+        assertEquals(firstEpicSubtasks, taskManager.getEpicSubtasks(epics.get(0)),
+                "Неверный список сабтасков первого эпика");
+        assertEquals(secondEpicSubtasks, taskManager.getEpicSubtasks(epics.get(1)),
+                "Неверный список сабтасков второго эпика");
+        assertNull(taskManager.getEpicSubtasks(null), "Возвращен список сабтасков для null");
+
+        //Удаление эпика затрагивает только его сабтаски
+        taskManager.deleteEpic(epics.get(0).getId());
+        assertEquals(secondEpicSubtasks.size(), taskManager.getSubtasks().size(),
+                "Неверное количество сабтасков после удаления эпика");
+        assertEquals(secondEpicSubtasks, taskManager.getEpicSubtasks(epics.get(1)),
+                "Неверный список сабтасков оставшегося эпика");
+    }
+
     @Test
     void getHistory() {
         List<Task> tasks;
@@ -962,6 +1025,159 @@ abstract class TaskManagerTest<T extends TaskManager> {
                 "Неверное время начала эпика");
     }
 
+    @Test
+    void epicTimesOnUpdateAndDeleteSubtasks() {
+        final Duration SUBTASK_DURATION = Duration.ofHours(1);
+
+        //Генерируем эпик и сабтаски, следующие друг за другом
+        Epic epic = generateEpicsForTest("epicTimesOnUpdateAndDeleteSubtasks", 1).get(0);
+        taskManager.appendEpic(epic);
+
+        List<Subtask> subtasks = generateSubtasksForTest("epicTimesOnUpdateAndDeleteSubtasks", epic, 3);
+        LocalDateTime startTime = LocalDateTime.of(2023, 3, 6, 18, 20);
+        for (Subtask subtask : subtasks) {
+            subtask.setStartTime(startTime);
+            subtask.setDuration(SUBTASK_DURATION);
+            startTime = startTime.plus(SUBTASK_DURATION);
+            taskManager.appendSubtask(subtask);
+        }
+
+        //Удаляем первый сабтаск: время начала эпика смещается ко второму
+        taskManager.deleteSubtask(subtasks.get(0).getId());
+        assertEquals(subtasks.get(1).getStartTime(), epic.getStartTime(), "Неверное время начала эпика");
+        assertEquals(subtasks.get(2).getEndTime(), epic.getEndTime(), "Неверное время окончания эпика");
+        assertEquals(SUBTASK_DURATION.multipliedBy(2), epic.getDuration(), "Неверная продолжительность эпика");
+
+        //Снимаем время начала последнего сабтаска: время окончания эпика сдвигается ко второму
+        Subtask lastSubtask = subtasks.get(2);
+        lastSubtask.setStartTime(null);
+        taskManager.updateSubtask(lastSubtask);
+        assertEquals(subtasks.get(1).getEndTime(), epic.getEndTime(), "Неверное время окончания эпика");
+        assertEquals(SUBTASK_DURATION.multipliedBy(2), epic.getDuration(), "Неверная продолжительность эпика");
+
+        //Удаляем оставшиеся сабтаски: параметры эпика сбрасываются
+        taskManager.deleteSubtask(subtasks.get(1).getId());
+        taskManager.deleteSubtask(lastSubtask.getId());
+        assertNull(epic.getStartTime(), "Время начала эпика не null");
+        assertNull(epic.getEndTime(), "Время окончания эпика не null");
+        assertNull(epic.getDuration(), "Продолжительность эпика не null");
+        assertEquals(TaskStatus.NEW, epic.getStatus(), "Неверный статус эпика при отсутствии сабтасков");
+        assertTrue(epic.getSubtaskIds().isEmpty(), "Список подзадач эпика не пуст");
+    }
+
+    @Test
+    void timesIntersectionsOnChunkBoundsAndUpdate() {
+        LocalDateTime startTime = LocalDateTime.of(2023, 3, 6, 18, 20);
+        List<Task> tasks = generateTasksForTest("timesIntersectionsOnChunkBoundsAndUpdate", 7);
+
+        Task task = tasks.get(0);
+        task.setStartTime(startTime);
+        task.setDuration(Duration.ofMinutes(30));
+        assertNotNull(taskManager.appendTask(task), "Задача не добавлена.");
+
+        //Задача, начинающаяся в момент окончания другой задачи, пересечений не имеет
+        Task adjacentTask = tasks.get(1);
+        adjacentTask.setStartTime(startTime.plusMinutes(30));
+        adjacentTask.setDuration(Duration.ofMinutes(10));
+        assertNotNull(taskManager.appendTask(adjacentTask), "Смежная задача не добавлена.");
+
+        //Задача, начинающаяся внутри занятого чанка, имеет пересечение
+        Task insideChunkTask = tasks.get(2);
+        insideChunkTask.setStartTime(startTime.plusMinutes(27));
+        insideChunkTask.setDuration(Duration.ofMinutes(1));
+        TaskValidatorException exception = assertThrows(TaskValidatorException.class,
+                () -> taskManager.appendTask(insideChunkTask), "Пересечение внутри чанка не обнаружено.");
+        //Исключение содержит сведения о задаче, с которой обнаружено пересечение
+        assertEquals(task.getId(), exception.getConflictingTaskId(), "Неверный id пересекающейся задачи.");
+        assertEquals(startTime, exception.getConflictStart(), "Неверное начало пересечения.");
+        assertEquals(startTime.plusMinutes(30), exception.getConflictEnd(), "Неверное окончание пересечения.");
+
+        //Задача без продолжительности занимает чанк, к которому относится время ее начала
+        Task noDurationTask = tasks.get(3);
+        noDurationTask.setStartTime(startTime.plusMinutes(42));
+        assertNotNull(taskManager.appendTask(noDurationTask), "Задача без продолжительности не добавлена.");
+        Task sameChunkTask = tasks.get(4);
+        sameChunkTask.setStartTime(startTime.plusMinutes(44));
+        assertThrows(TaskValidatorException.class, () -> taskManager.appendTask(sameChunkTask),
+                "Пересечение задач без продолжительности не обнаружено.");
+
+        //Сдвиг задачи на время, пересекающееся с ее прежним временем, допустим
+        task.setStartTime(startTime.minusMinutes(10));
+        assertNotNull(taskManager.updateTask(task), "Задача не обновлена.");
+        Task releasedTimeTask = tasks.get(5);
+        releasedTimeTask.setStartTime(startTime.plusMinutes(20));
+        releasedTimeTask.setDuration(Duration.ofMinutes(10));
+        assertNotNull(taskManager.appendTask(releasedTimeTask), "Освобожденное время не доступно.");
+
+        //Сброс времени задачи освобождает занятое ей время
+        task.setStartTime(null);
+        assertNotNull(taskManager.updateTask(task), "Задача не обновлена.");
+        Task lastTask = tasks.get(6);
+        lastTask.setStartTime(startTime.minusMinutes(10));
+        lastTask.setDuration(Duration.ofMinutes(30));
+        assertNotNull(taskManager.appendTask(lastTask), "Освобожденное время не доступно.");
+    }
+
+    @Test
+    void timesIntersectionsOnUpdateWithLargeIds() {
+        //Идентификаторы задач больше 127 (вне кэша Integer)
+        List<Task> tasks = generateTasksForTest("timesIntersectionsOnUpdateWithLargeIds", 200);
+        for (Task task : tasks) {
+            taskManager.appendTask(task);
+        }
+
+        Task task = tasks.get(tasks.size() - 1);
+        task.setStartTime(LocalDateTime.of(2023, 3, 6, 18, 20));
+        task.setDuration(Duration.ofMinutes(30));
+        assertNotNull(taskManager.updateTask(task), "Задача не обновлена.");
+
+        //Сдвиг задачи на время, пересекающееся с ее прежним временем, допустим
+        task.setStartTime(task.getStartTime().plusMinutes(5));
+        assertNotNull(taskManager.updateTask(task), "Задача не обновлена.");
+    }
+
+    @Test
+    void findFreeSlots() {
+        LocalDateTime from = LocalDateTime.of(2023, 3, 6, 18, 0);
+        LocalDateTime to = from.plusHours(4);
+
+        List<Task> tasks = generateTasksForTest("findFreeSlots", 3);
+        tasks.get(0).setStartTime(from.plusMinutes(20));
+        tasks.get(0).setDuration(Duration.ofMinutes(30));
+        tasks.get(1).setStartTime(from.plusHours(1));
+        tasks.get(1).setDuration(Duration.ofMinutes(62)); //занимает время до 20:05 (с учетом чанков)
+        for (int i = 0; i < 2; i++) {
+            taskManager.appendTask(tasks.get(i));
+        }
+
+        List<TimeSlot> slots = taskManager.findFreeSlots(Duration.ofMinutes(10), from, to, 5);
+        assertEquals(List.of(new TimeSlot(from, from.plusMinutes(20)),
+                        new TimeSlot(from.plusMinutes(50), from.plusHours(1)),
+                        new TimeSlot(from.plusHours(2).plusMinutes(5), to)),
+                slots, "Неверный перечень свободных периодов.");
+
+        //Периоды, в которые задача не помещается, пропускаются; количество периодов ограничено
+        slots = taskManager.findFreeSlots(Duration.ofMinutes(30), from.plusMinutes(3), to, 1);
+        assertEquals(List.of(new TimeSlot(from.plusHours(2).plusMinutes(5), to)), slots,
+                "Неверный перечень свободных периодов.");
+
+        //Граница поиска, не совпадающая с границей чанка
+        slots = taskManager.findFreeSlots(Duration.ofMinutes(10), from.plusMinutes(3), to, 1);
+        assertEquals(List.of(new TimeSlot(from.plusMinutes(3), from.plusMinutes(20))), slots,
+                "Неверное начало свободного периода.");
+
+        //Задача, размещенная в найденном периоде, проходит валидацию
+        Task task = tasks.get(2);
+        task.setStartTime(slots.get(0).getStart());
+        task.setDuration(Duration.ofMinutes(10));
+        assertNotNull(taskManager.appendTask(task), "Задача в свободном периоде не добавлена.");
+
+        assertThrows(IllegalArgumentException.class, () -> taskManager.findFreeSlots(Duration.ZERO, from, to, 1),
+                "Нулевая продолжительность должна отклоняться.");
+        assertThrows(IllegalArgumentException.class, () -> taskManager.findFreeSlots(Duration.ofMinutes(10), to,
+                from, 1), "Некорректный период должен отклоняться.");
+    }
+
     @Test
     void timesIntersectionsOnAppendTasks() {
         List<Task> tasks;
@@ -995,4 +1211,42 @@ abstract class TaskManagerTest<T extends TaskManager> {
                     "Пересечения подзадачи и задачи не обнаружены");
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void getPrioritizedTasksInPeriod() {
+        LocalDateTime startTime = LocalDateTime.of(2023, 3, 6, 18, 20);
+        Duration duration = Duration.ofMinutes(30);
+
+        //Задачи следуют одна за другой, последняя задача без времени
+        List<Task> tasks = generateTasksForTest("getPrioritizedTasksInPeriod", 6);
+        for (int i = 0; i < tasks.size() - 1; i++) {
+            Task task = tasks.get(i);
+            task.setStartTime(startTime.plus(duration.multipliedBy(i)));
+            task.setDuration(duration);
+        }
+        for (Task task : tasks) {
+            taskManager.appendTask(task);
+        }
+
+        //Границы периода: начало включается, окончание не включается
+        List<Task> periodTasks = taskManager.getPrioritizedTasks(startTime.plus(duration),
+                startTime.plus(duration.multipliedBy(3)));
+        assertEquals(List.of(tasks.get(1), tasks.get(2)), periodTasks, "Неправильная выборка задач за период.");
+
+        //Граница, не совпадающая с началом минуты
+        periodTasks = taskManager.getPrioritizedTasks(startTime.plusSeconds(1), null);
+        assertEquals(tasks.subList(1, 5), periodTasks, "Неправильная выборка задач без окончания периода.");
+
+        //Без границ выборка совпадает с полным перечнем (включая задачи без времени)
+        assertEquals(taskManager.getPrioritizedTasks(), taskManager.getPrioritizedTasks(null, null),
+                "Выборка без границ не совпадает с полным перечнем.");
+
+        //Постраничная выдача
+        assertEquals(tasks.subList(2, 4), taskManager.getPrioritizedTasks(null, null, 2, 2),
+                "Неправильная страница выборки.");
+        assertEquals(List.of(tasks.get(5)), taskManager.getPrioritizedTasks(null, null, 5, 10),
+                "Неправильная последняя страница выборки.");
+        assertTrue(taskManager.getPrioritizedTasks(startTime, null, 10, 10).isEmpty(),
+                "Страница за пределами выборки должна быть пустой.");
+    }
+}